@@ -0,0 +1,69 @@
+package com.mixfa.tempmessages.benchmark;
+
+import com.mixfa.tempmessages.TempMessagesApplication;
+import com.mixfa.tempmessages.service.impl.ChannelsServiceImpl;
+import com.mixfa.tempmessages.service.impl.LocalFileStorageService;
+import com.mixfa.tempmessages.service.impl.MessageFanout;
+import com.mixfa.tempmessages.service.impl.MessageLogFactory;
+import com.mixfa.tempmessages.service.impl.StorageQuotas;
+import com.mixfa.tempmessages.service.impl.ThumbnailService;
+import com.mixfa.tempmessages.service.impl.VerifiedCredentialsCache;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Wires services by hand, so benchmarks measure the hot paths without starting the application.
+ */
+final class BenchmarkContext {
+    static final String CHANNEL = "benchmark";
+    static final String PASSWORD = "benchmark-password";
+
+    private BenchmarkContext() {
+    }
+
+    static PasswordEncoder passwordEncoder() {
+        return new BCryptPasswordEncoder();
+    }
+
+    static VerifiedCredentialsCache credentialsCache(PasswordEncoder passwordEncoder) {
+        return new VerifiedCredentialsCache(passwordEncoder, 10_000, Duration.ofMinutes(10));
+    }
+
+    static Path temporaryRoot() throws IOException {
+        return Files.createTempDirectory("temp-messages-benchmark");
+    }
+
+    /**
+     * {@code ChannelStorage.local} looks its beans up in the application context, so a minimal
+     * one is installed before any channel service is created.
+     */
+    static ChannelsServiceImpl channelsService(Path root, int maxMessages) {
+        var passwordEncoder = passwordEncoder();
+        var context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("passwordEncoder", passwordEncoder);
+        context.getBeanFactory().registerSingleton("verifiedCredentialsCache", credentialsCache(passwordEncoder));
+        context.refresh();
+        new TempMessagesApplication().setApplicationContext(context);
+
+        var fileStorageService = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        return new ChannelsServiceImpl(
+                fileStorageService,
+                new StorageQuotas(fileStorageService, DataSize.ofGigabytes(1), DataSize.ofBytes(0)),
+                new ThumbnailService(fileStorageService, false, 256, 1, 1),
+                new MessageLogFactory(maxMessages, DataSize.ofGigabytes(1), false, root.toString(),
+                        DataSize.ofMegabytes(4), DataSize.ofMegabytes(64)),
+                Duration.ofDays(1),
+                false,
+                DataSize.ofGigabytes(4),
+                256,
+                MessageFanout.OverflowPolicy.DROP_OLDEST
+        );
+    }
+}
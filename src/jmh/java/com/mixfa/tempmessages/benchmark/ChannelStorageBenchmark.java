@@ -0,0 +1,45 @@
+package com.mixfa.tempmessages.benchmark;
+
+import com.mixfa.tempmessages.model.Channel;
+import com.mixfa.tempmessages.service.ChannelStorage;
+import com.mixfa.tempmessages.service.impl.MapChannelStorageImpl;
+import com.mixfa.tempmessages.service.impl.VerifiedCredentialsCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.mixfa.tempmessages.benchmark.BenchmarkContext.CHANNEL;
+import static com.mixfa.tempmessages.benchmark.BenchmarkContext.PASSWORD;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ChannelStorageBenchmark {
+    private VerifiedCredentialsCache credentialsCache;
+    private MapChannelStorageImpl<Channel> channelStorage;
+
+    @Setup
+    public void setup() throws Exception {
+        var passwordEncoder = BenchmarkContext.passwordEncoder();
+        credentialsCache = BenchmarkContext.credentialsCache(passwordEncoder);
+        channelStorage = new MapChannelStorageImpl<>(Channel::new, passwordEncoder, credentialsCache, ChannelStorage.Settings.DEFAULT);
+        channelStorage.createChannel(CHANNEL, PASSWORD);
+    }
+
+    @Benchmark
+    public Channel getChannelOrThrow() throws Exception {
+        return channelStorage.getChannelOrThrow(CHANNEL, PASSWORD);
+    }
+
+    /**
+     * Every call pays the full password encoder cost.
+     */
+    @Benchmark
+    public Channel getChannelOrThrowUncached() throws Exception {
+        credentialsCache.invalidate(CHANNEL);
+        return channelStorage.getChannelOrThrow(CHANNEL, PASSWORD);
+    }
+}
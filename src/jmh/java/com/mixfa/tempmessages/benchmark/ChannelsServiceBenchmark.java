@@ -0,0 +1,48 @@
+package com.mixfa.tempmessages.benchmark;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.TextMessage;
+import com.mixfa.tempmessages.service.impl.ChannelsServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mixfa.tempmessages.benchmark.BenchmarkContext.CHANNEL;
+import static com.mixfa.tempmessages.benchmark.BenchmarkContext.PASSWORD;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ChannelsServiceBenchmark {
+    @Param({"0", "10", "1000"})
+    private int subscribers;
+
+    private ChannelsServiceImpl channelsService;
+    private final List<Disposable> subscriptions = new ArrayList<>();
+    private final Message message = new TextMessage("benchmark message");
+
+    @Setup
+    public void setup() throws Exception {
+        channelsService = BenchmarkContext.channelsService(BenchmarkContext.temporaryRoot(), 10_000);
+        channelsService.createChannel(CHANNEL, PASSWORD).block();
+
+        for (int i = 0; i < subscribers; i++)
+            subscriptions.add(channelsService.listenMessages(CHANNEL, PASSWORD).subscribe());
+    }
+
+    @TearDown
+    public void tearDown() {
+        subscriptions.forEach(Disposable::dispose);
+    }
+
+    @Benchmark
+    public Message sendMessage() throws Exception {
+        return channelsService.sendMessage(CHANNEL, PASSWORD, message).block();
+    }
+}
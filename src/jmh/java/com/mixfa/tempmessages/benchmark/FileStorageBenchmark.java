@@ -0,0 +1,59 @@
+package com.mixfa.tempmessages.benchmark;
+
+import com.mixfa.tempmessages.model.FileData;
+import com.mixfa.tempmessages.service.impl.LocalFileStorageService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class FileStorageBenchmark {
+    @Param({"4096", "1048576", "26214400"})
+    private int fileSize;
+
+    @Param({"false", "true"})
+    private boolean deduplicate;
+
+    private LocalFileStorageService fileStorageService;
+    private byte[] content;
+    private String storedId;
+    private final List<String> writtenIds = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        fileStorageService = new LocalFileStorageService(BenchmarkContext.temporaryRoot().toString(), deduplicate, DataSize.ofMegabytes(25), false, false);
+        content = new byte[fileSize];
+        ThreadLocalRandom.current().nextBytes(content);
+        storedId = fileStorageService.write("stored.bin", new ByteArrayInputStream(content)).id();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteWrittenFiles() throws Exception {
+        for (String id : writtenIds)
+            fileStorageService.delete(id);
+        writtenIds.clear();
+    }
+
+    @Benchmark
+    public FileData write() throws Exception {
+        var fileData = fileStorageService.write("written.bin", new ByteArrayInputStream(content));
+        writtenIds.add(fileData.id());
+        return fileData;
+    }
+
+    @Benchmark
+    public void read() throws Exception {
+        fileStorageService.read(storedId).streamingResponse().writeTo(OutputStream.nullOutputStream());
+    }
+}
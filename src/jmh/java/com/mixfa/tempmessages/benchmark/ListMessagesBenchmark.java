@@ -0,0 +1,46 @@
+package com.mixfa.tempmessages.benchmark;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.TextMessage;
+import com.mixfa.tempmessages.service.impl.ChannelsServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mixfa.tempmessages.benchmark.BenchmarkContext.CHANNEL;
+import static com.mixfa.tempmessages.benchmark.BenchmarkContext.PASSWORD;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ListMessagesBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"100", "10000", "100000"})
+    private int historySize;
+
+    private ChannelsServiceImpl channelsService;
+
+    @Setup
+    public void setup() throws Exception {
+        channelsService = BenchmarkContext.channelsService(BenchmarkContext.temporaryRoot(), historySize);
+        channelsService.createChannel(CHANNEL, PASSWORD).block();
+
+        for (int i = 0; i < historySize; i++)
+            channelsService.sendMessage(CHANNEL, PASSWORD, new TextMessage("message " + i)).block();
+    }
+
+    @Benchmark
+    public List<Message> latestPage() throws Exception {
+        return channelsService.listMessages(CHANNEL, PASSWORD, historySize - PAGE_SIZE, PAGE_SIZE).collectList().block();
+    }
+
+    @Benchmark
+    public List<Message> fullHistory() throws Exception {
+        return channelsService.listMessages(CHANNEL, PASSWORD, 0, historySize).collectList().block();
+    }
+}
@@ -0,0 +1,35 @@
+package com.mixfa.tempmessages.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mixfa.tempmessages.TempMessagesApplication;
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MessageSerializationBenchmark {
+    private final ObjectWriter writer = TempMessagesApplication.getObjectMapper().writerFor(Message.class);
+    private final ObjectReader reader = TempMessagesApplication.getObjectMapper().readerFor(Message.class);
+
+    private final Message textMessage = new TextMessage("benchmark message");
+    private final Message fileMessage = new FileMessage("/files/0123456789abcdef/report.pdf", "0123456789abcdef");
+
+    @Benchmark
+    public Message textMessageRoundTrip() throws Exception {
+        return reader.readValue(writer.writeValueAsString(textMessage));
+    }
+
+    @Benchmark
+    public Message fileMessageRoundTrip() throws Exception {
+        return reader.readValue(writer.writeValueAsString(fileMessage));
+    }
+}
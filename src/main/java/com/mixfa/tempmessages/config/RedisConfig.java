@@ -2,7 +2,6 @@ package com.mixfa.tempmessages.config;
 
 import com.mixfa.tempmessages.TempMessagesApplication;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -18,9 +17,6 @@ import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSeriali
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
-import org.springframework.util.FileSystemUtils;
-
-import java.nio.file.Path;
 
 @Profile("redis")
 @Slf4j
@@ -48,11 +44,11 @@ public class RedisConfig {
     }
 
     @Bean
-    public CommandLineRunner flushAll(ReactiveRedisTemplate<String, Object> template, @Value("${filestorage.root}") String root) {
+    public CommandLineRunner flushAll(ReactiveRedisTemplate<String, Object> template) {
+        // the stored files of the flushed channels are reclaimed by StorageSweeper in the background
         return _ -> {
             try {
                 template.getConnectionFactory().getReactiveConnection().serverCommands().flushAll().subscribe();
-                FileSystemUtils.deleteRecursively(Path.of(root));
             } catch (Exception ex) {
                 log.error(ex.getLocalizedMessage());
             }
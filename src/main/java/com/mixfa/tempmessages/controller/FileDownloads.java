@@ -0,0 +1,246 @@
+package com.mixfa.tempmessages.controller;
+
+import com.mixfa.tempmessages.model.FileResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Serves stored files over HTTP.
+ * <p>
+ * Files that live on local disk are answered with Content-Length, a strong ETag and Last-Modified,
+ * and honour {@code If-None-Match} and a single {@code Range} (guarded by {@code If-Range}). When the
+ * connector supports it the body is handed to Tomcat's sendfile and never passes through the heap;
+ * otherwise it is copied into the response stream, a buffer at a time. Anything else is streamed as is,
+ * with Content-Length and the validators when they are known.
+ * <p>
+ * Files stored compressed go out untouched, with {@code Content-Encoding}, to clients that accept
+ * the coding; everyone else gets them decoded on the fly, as a whole and under a weak ETag of their own.
+ */
+final class FileDownloads {
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String THUMBNAIL_CACHE_CONTROL = "private, max-age=31536000, immutable";
+
+    private FileDownloads() {
+    }
+
+    static void serve(FileResponse file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(file, ContentDisposition.attachment(), request, response);
+    }
+
+    /**
+     * Serves a thumbnail for display; it never changes for a file id, so clients may keep it for good,
+     * but only privately since the URL carries the channel password.
+     */
+    static void serveThumbnail(FileResponse thumbnail, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, THUMBNAIL_CACHE_CONTROL);
+        serve(thumbnail, ContentDisposition.inline(), request, response);
+    }
+
+    private static void serve(FileResponse file, ContentDisposition.Builder disposition, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        var contentType = file.contentType() != null
+                ? file.contentType()
+                : MediaTypeFactory.getMediaType(file.filename()).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+        response.setContentType(contentType);
+        if (StandardCharsets.US_ASCII.newEncoder().canEncode(file.filename()))
+            disposition.filename(file.filename());
+        else
+            disposition.filename(file.filename(), StandardCharsets.UTF_8);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.build().toString());
+
+        if (file.contentEncoding() != null) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (!acceptsEncoding(request.getHeader(HttpHeaders.ACCEPT_ENCODING), file.contentEncoding())) {
+                serveDecoded(file, request, response);
+                return;
+            }
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, file.contentEncoding());
+        }
+
+        if (notModified(file.etag(), file, request, response))
+            return;
+
+        // held in memory, or only known as a stream
+        if (file.path() == null || file.size() < 0) {
+            if (file.size() >= 0)
+                response.setContentLengthLong(file.size());
+            if (!HttpMethod.HEAD.matches(request.getMethod()))
+                file.streamingResponse().writeTo(response.getOutputStream());
+            return;
+        }
+
+        var size = file.size();
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        long start = 0;
+        long end = size;
+        var rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && ifRangeHolds(request, file)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException ex) {
+                ranges = List.of();
+            }
+
+            // several ranges would need a multipart body; the full content is a valid answer too
+            if (ranges.size() == 1) {
+                var range = ranges.getFirst();
+                start = range.getRangeStart(size);
+                if (start >= size) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                end = range.getRangeEnd(size) + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + size);
+            }
+        }
+
+        response.setContentLengthLong(end - start);
+        if (HttpMethod.HEAD.matches(request.getMethod()) || start == end)
+            return;
+
+        transfer(file.path(), start, end, request, response);
+    }
+
+    /**
+     * Its length is only known once it is decoded, so ranges are not served over it: a {@code Range}
+     * gets the full content with 200.
+     */
+    private static void serveDecoded(FileResponse file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        if (notModified(file.etag() == null ? null : decodedTag(file.etag()), file, request, response))
+            return;
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (!HttpMethod.HEAD.matches(request.getMethod()))
+            file.streamingResponse().writeTo(response.getOutputStream());
+    }
+
+    /**
+     * Sets the validators and answers a matching {@code If-None-Match} with 304.
+     *
+     * @return whether the response is complete
+     */
+    private static boolean notModified(String etag, FileResponse file, HttpServletRequest request,
+                                       HttpServletResponse response) {
+        if (etag != null)
+            response.setHeader(HttpHeaders.ETAG, etag);
+        if (file.lastModified() != null)
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, file.lastModified().toEpochMilli());
+
+        var ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && etag != null && noneMatchHits(ifNoneMatch, etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    private static void transfer(Path path, long start, long end, HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+
+        // not zero-copy: the servlet stream is no channel, so the JDK copies through a buffer on its way
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var target = Channels.newChannel(response.getOutputStream());
+            for (long position = start; position < end; )
+                position += channel.transferTo(position, end - position, target);
+        }
+    }
+
+    /**
+     * Whether {@code Accept-Encoding} allows {@code encoding}, by name or wildcard, with a non-zero weight.
+     */
+    private static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        for (String candidate : acceptEncoding.split(",")) {
+            var parts = candidate.split(";");
+            var coding = parts[0].trim();
+            if (!coding.equalsIgnoreCase(encoding) && !coding.equalsIgnoreCase("x-" + encoding) && !coding.equals("*"))
+                continue;
+
+            var weight = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                var parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        weight = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException ex) {
+                        weight = 0;
+                    }
+                }
+            }
+            return weight > 0;
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        var tag = etag.trim();
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * The decoded bytes differ from the stored ones, so they must not share a tag.
+     */
+    private static String decodedTag(String etag) {
+        var tag = opaqueTag(etag);
+        return "W/" + tag.substring(0, tag.length() - 1) + "-identity\"";
+    }
+
+    private static boolean noneMatchHits(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            var tag = candidate.trim();
+            if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag(etag)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A range is only served for the representation the client already has part of.
+     */
+    private static boolean ifRangeHolds(HttpServletRequest request, FileResponse file) {
+        var ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null)
+            return true;
+
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+            // strong comparison only
+            return !ifRange.startsWith("W/") && ifRange.equals(file.etag());
+
+        try {
+            var since = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return file.lastModified() != null && file.lastModified().toEpochMilli() / 1000 == since / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+}
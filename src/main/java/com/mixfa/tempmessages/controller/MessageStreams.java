@@ -0,0 +1,118 @@
+package com.mixfa.tempmessages.controller;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.StatsSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Long-lived message streams served over HTTP.
+ * <p>
+ * Each node serves at most {@code channel.streams.max-per-channel} streams of a channel at once, and idle
+ * streams get a heartbeat every {@code channel.streams.heartbeat-interval}, so proxies do not take them
+ * for dead connections. A stream that cannot be opened fails right away with the status to answer with:
+ * {@code 404} for an unknown channel, {@code 401} for a wrong password and {@code 429} over the cap.
+ */
+@Component
+public class MessageStreams implements StatsSource {
+    private final ReactiveChannelsService channelsService;
+    private final int maxPerChannel;
+    private final Duration heartbeatInterval;
+    // guarded by this
+    private final Map<String, Integer> open = new HashMap<>();
+    private int openTotal;
+    private final LongAdder rejections = new LongAdder();
+
+    public MessageStreams(ReactiveChannelsService channelsService,
+                          @Value("${channel.streams.max-per-channel:100}") int maxPerChannel,
+                          @Value("${channel.streams.heartbeat-interval:15s}") Duration heartbeatInterval) {
+        this.channelsService = channelsService;
+        this.maxPerChannel = maxPerChannel;
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    private synchronized void acquire(String channelName) {
+        var count = open.getOrDefault(channelName, 0);
+        if (count >= maxPerChannel) {
+            rejections.increment();
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many streams on this channel");
+        }
+        open.put(channelName, count + 1);
+        openTotal++;
+    }
+
+    private synchronized void release(String channelName) {
+        open.computeIfPresent(channelName, (_, count) -> count == 1 ? null : count - 1);
+        openTotal--;
+    }
+
+    private <T> Flux<T> capped(String channelName, String password, Callable<Flux<T>> stream) throws Exception {
+        if (!channelsService.channelCheckCredentials(channelName, password)) {
+            throw channelsService.channelExists(channelName)
+                    ? new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Password not matches")
+                    : new ResponseStatusException(HttpStatus.NOT_FOUND, "Channel not found");
+        }
+
+        acquire(channelName);
+        try {
+            return stream.call().doFinally(_ -> release(channelName));
+        } catch (Exception ex) {
+            release(channelName);
+            throw ex;
+        }
+    }
+
+    /**
+     * Live messages of the channel; fails right away if the stream cannot be opened.
+     */
+    public Flux<Message> listen(String channelName, String password) throws Exception {
+        return capped(channelName, password, () -> channelsService.listenMessages(channelName, password));
+    }
+
+    /**
+     * The channel's messages from {@code fromSequence} on, then live ones;
+     * fails right away if the stream cannot be opened.
+     */
+    public Flux<SequencedMessage> listen(String channelName, String password, long fromSequence) throws Exception {
+        return capped(channelName, password, () -> channelsService.listenMessages(channelName, password, fromSequence));
+    }
+
+    /**
+     * Interleaves {@code heartbeat} into {@code events} whenever nothing was sent for a heartbeat interval,
+     * ending with {@code events}.
+     */
+    public <T> Flux<T> withHeartbeats(Flux<T> events, T heartbeat) {
+        var idle = Flux.interval(heartbeatInterval).map(_ -> heartbeat);
+        // every event restarts the idle timer
+        return events.publish(shared -> Flux.<Flux<T>>concat(Mono.just(idle), shared.map(event -> idle.startWith(event)))
+                .switchMap(Function.identity())
+                .takeUntilOther(shared.then()));
+    }
+
+    @Override
+    public String statsName() {
+        return "streams";
+    }
+
+    @Override
+    public synchronized Object stats() {
+        return Map.of(
+                "open", openTotal,
+                "channels", open.size(),
+                "rejections", rejections.sum()
+        );
+    }
+}
@@ -1,21 +1,78 @@
 package com.mixfa.tempmessages.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mixfa.tempmessages.model.*;
 import com.mixfa.tempmessages.service.FileStorageService;
 import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.UploadSessionService;
+import com.mixfa.tempmessages.service.impl.ThumbnailService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
 
 @RestController
 @RequestMapping("/v1")
 @RequiredArgsConstructor
 public class RestControllerV1 {
     private final ReactiveChannelsService channelsService;
-    private final FileStorageService fileStorageService;
+    private final ObjectMapper objectMapper;
+    private final UploadSessionService uploadSessions;
+    private final ThumbnailService thumbnailService;
+    private final MessageStreams messageStreams;
+
+    private static final ServerSentEvent<?> HEARTBEAT = ServerSentEvent.builder().comment("heartbeat").build();
+
+    public record TextPayload(String text) {
+    }
+
+    private static long resumeFrom(Long lastEventId, Long from) {
+        // ids are sequences, which are never negative; the largest one has nothing after it
+        if (lastEventId != null)
+            return lastEventId == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(lastEventId + 1, 0);
+        // one past the end of any history, so only new messages are sent
+        return from == null ? Long.MAX_VALUE : from;
+    }
+
+    /**
+     * Messages as server-sent events, each with its sequence as the event id, so a reconnecting
+     * {@code EventSource} resumes after the last one it received.
+     */
+    @GetMapping(path = "/c/{channel}/{password}/listen", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> listenEvents(@PathVariable String channel, @PathVariable String password,
+                                                 @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId,
+                                                 @RequestParam(required = false) Long from) throws Exception {
+        Flux<ServerSentEvent<?>> events = messageStreams.listen(channel, password, resumeFrom(lastEventId, from))
+                .map(it -> ServerSentEvent.builder(it.toDto())
+                        .id(Long.toString(it.sequence()))
+                        .build());
+        return messageStreams.withHeartbeats(events, HEARTBEAT)
+                .onErrorResume(ex -> Mono.just(ServerSentEvent.builder(ex.getLocalizedMessage()).event("error").build()));
+    }
+
+    /**
+     * Messages as newline-delimited JSON, heartbeats are empty lines.
+     */
+    @GetMapping(path = "/c/{channel}/{password}/listen", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Object> listenNdjson(@PathVariable String channel, @PathVariable String password,
+                                     @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId,
+                                     @RequestParam(required = false) Long from) throws Exception {
+        Flux<Object> messages = messageStreams.listen(channel, password, resumeFrom(lastEventId, from))
+                .map(SequencedMessage::toDto);
+        return messageStreams.withHeartbeats(messages, "");
+    }
 
     @GetMapping("/c/{channel}/{password}/messages")
     public Flux<Message.Dto> listMessages(@PathVariable String channel, @PathVariable String password) throws Exception {
@@ -32,17 +89,109 @@ public class RestControllerV1 {
         return channelsService.sendMessage(channel, password, new TextMessage(text)).map(Message::toDto);
     }
 
+    @PostMapping(path = "/c/{channel}/{password}/send-batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Flux<SequencedMessage.Dto> sendMessages(@PathVariable String channel, @PathVariable String password,
+                                                   @RequestBody List<TextPayload> payloads) throws Exception {
+        return channelsService.sendMessages(channel, password, Flux.fromIterable(payloads).map(it -> new TextMessage(it.text())))
+                .map(SequencedMessage::toDto);
+    }
+
+    @PostMapping(path = "/c/{channel}/{password}/send-batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<SequencedMessage.Dto> sendMessagesStream(@PathVariable String channel, @PathVariable String password,
+                                                         HttpServletRequest request) throws Exception {
+        var payloads = Flux.<TextPayload, MappingIterator<TextPayload>>using(
+                        () -> objectMapper.readerFor(TextPayload.class).readValues(request.getInputStream()),
+                        iterator -> Flux.fromIterable(() -> iterator),
+                        iterator -> {
+                            try {
+                                iterator.close();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                .map(it -> new TextMessage(it.text()))
+                .subscribeOn(Schedulers.boundedElastic());
+
+        return channelsService.sendMessages(channel, password, payloads).map(SequencedMessage::toDto);
+    }
+
     @PostMapping("/c/{channel}/{password}/send-file")
     public Mono<Message.Dto> sendFile(@PathVariable String channel, @PathVariable String password, @RequestParam() MultipartFile file) throws Exception {
-        var savedFile = fileStorageService.write(file);
-        var fileMessage = new FileMessage(savedFile.path(), savedFile.id());
-        return channelsService.sendMessage(channel, password, fileMessage).map(Message::toDto);
+        var filename = Objects.requireNonNullElse(file.getOriginalFilename(), file.getName());
+        return channelsService.sendFileMessage(channel, password, filename, FileStorageService.content(file::getInputStream))
+                .map(Message::toDto);
+    }
+
+    /**
+     * Stores the raw request body as {@code filename}, streaming it straight to storage.
+     */
+    @PostMapping("/c/{channel}/{password}/upload/{filename}")
+    public Mono<Message.Dto> uploadFile(@PathVariable String channel, @PathVariable String password,
+                                        @PathVariable String filename, HttpServletRequest request) throws Exception {
+        if (!channelsService.channelCheckCredentials(channel, password))
+            throw new Exception("Channel not found");
+
+        return channelsService.sendFileMessage(channel, password, filename, FileStorageService.content(request::getInputStream))
+                .map(Message::toDto);
+    }
+
+    /**
+     * Starts a chunked upload of {@code length} bytes; chunks are then PUT as binary bodies at their
+     * offsets, in any order, and the upload is completed once every byte has arrived.
+     */
+    @PostMapping("/c/{channel}/{password}/uploads")
+    public Mono<UploadStatus> createUpload(@PathVariable String channel, @PathVariable String password,
+                                           @RequestParam String filename, @RequestParam long length) throws Exception {
+        return uploadSessions.create(channel, password, filename, length);
+    }
+
+    @PutMapping(path = "/c/{channel}/{password}/uploads/{upload}",
+            consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/offset+octet-stream"})
+    public Mono<UploadStatus> writeUploadChunk(@PathVariable String channel, @PathVariable String password,
+                                               @PathVariable String upload, @RequestParam long offset,
+                                               HttpServletRequest request) throws Exception {
+        return uploadSessions.write(channel, password, upload, offset, FileStorageService.content(request::getInputStream));
+    }
+
+    @GetMapping("/c/{channel}/{password}/uploads/{upload}")
+    public Mono<UploadStatus> uploadStatus(@PathVariable String channel, @PathVariable String password,
+                                           @PathVariable String upload) throws Exception {
+        return uploadSessions.status(channel, password, upload);
+    }
+
+    @PostMapping("/c/{channel}/{password}/uploads/{upload}/complete")
+    public Mono<Message.Dto> completeUpload(@PathVariable String channel, @PathVariable String password,
+                                            @PathVariable String upload) throws Exception {
+        return uploadSessions.complete(channel, password, upload).map(Message::toDto);
+    }
+
+    @DeleteMapping("/c/{channel}/{password}/uploads/{upload}")
+    public Mono<Void> abortUpload(@PathVariable String channel, @PathVariable String password,
+                                  @PathVariable String upload) throws Exception {
+        return uploadSessions.abort(channel, password, upload);
     }
 
     @GetMapping("/c/{channel}/{password}/get-file/{fileId}")
-    public Mono<StreamingResponseBody> downloadFile(
-            @PathVariable String channel, @PathVariable String password, @PathVariable String fileId
+    public void downloadFile(
+            @PathVariable String channel, @PathVariable String password, @PathVariable String fileId,
+            HttpServletRequest request, HttpServletResponse response
+    ) throws Exception {
+        var file = channelsService.getFile(channel, password, fileId).block();
+        if (file == null)
+            throw new Exception("File not found");
+
+        FileDownloads.serve(file, request, response);
+    }
+
+    @GetMapping("/c/{channel}/{password}/get-file/{fileId}/thumbnail")
+    public void downloadThumbnail(
+            @PathVariable String channel, @PathVariable String password, @PathVariable String fileId,
+            HttpServletRequest request, HttpServletResponse response
     ) throws Exception {
-        return channelsService.getFile(channel, password, fileId).map(FileResponse::streamingResponse);
+        var file = channelsService.getFile(channel, password, fileId).block();
+        if (file == null)
+            throw new Exception("File not found");
+
+        FileDownloads.serveThumbnail(thumbnailService.thumbnail(fileId, file.contentType()).block(), request, response);
     }
 }
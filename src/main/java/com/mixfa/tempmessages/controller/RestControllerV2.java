@@ -1,18 +1,20 @@
 package com.mixfa.tempmessages.controller;
 
 import com.mixfa.tempmessages.misc.Utils;
-import com.mixfa.tempmessages.model.FileMessage;
-import com.mixfa.tempmessages.model.FileResponse;
 import com.mixfa.tempmessages.model.TextMessage;
 import com.mixfa.tempmessages.service.FileStorageService;
 import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.impl.ThumbnailService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @RestController
@@ -20,13 +22,20 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class RestControllerV2 {
     private final ReactiveChannelsService channelsService;
-    private final FileStorageService fileStorageService;
+    private final ThumbnailService thumbnailService;
+    private final MessageStreams messageStreams;
 
     @GetMapping("/c/{channel}/{password}/listen")
-    public Flux<String> listenMessages(@PathVariable String channel, @PathVariable String password) throws Exception {
-        return channelsService.listenMessages(channel, password)
-                .map(it -> Utils.messageToPrettyString(it) + "\n")
-                .onErrorReturn("Error");
+    public Flux<String> listenMessages(@PathVariable String channel, @PathVariable String password,
+                                       @RequestParam(required = false) Long from) throws Exception {
+        if (from == null)
+            return messageStreams.listen(channel, password)
+                    .map(it -> Utils.messageToPrettyString(it) + "\n")
+                    .onErrorResume(ex -> Mono.just("Error: " + ex.getLocalizedMessage() + "\n"));
+
+        return messageStreams.listen(channel, password, from)
+                .map(it -> it.sequence() + " " + Utils.messageToPrettyString(it.message()) + "\n")
+                .onErrorResume(ex -> Mono.just("Error: " + ex.getLocalizedMessage() + "\n"));
     }
 
     @GetMapping("/c/{channel}/{password}/messages")
@@ -55,20 +64,61 @@ public class RestControllerV2 {
                 .onErrorReturn("Error");
     }
 
+    @PostMapping(path = "/c/{channel}/{password}/send-batch", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public Flux<String> sendMessages(@PathVariable String channel, @PathVariable String password,
+                                     @RequestBody String text) throws Exception {
+        var payloads = Flux.fromStream(text.lines())
+                .filter(line -> !line.isBlank())
+                .map(TextMessage::new);
+
+        return channelsService.sendMessages(channel, password, payloads)
+                .map(it -> it.sequence() + " " + Utils.messageToPrettyString(it.message()) + "\n")
+                .onErrorReturn("Error");
+    }
+
     @PostMapping("/c/{channel}/{password}/send-file")
     public Mono<String> sendFile(@PathVariable String channel, @PathVariable String password,
                                  @RequestParam() MultipartFile file) throws Exception {
-        var savedFile = fileStorageService.write(file);
-        var fileMessage = new FileMessage(savedFile.path(), savedFile.id());
-        return channelsService.sendMessage(channel, password, fileMessage)
+        var filename = Objects.requireNonNullElse(file.getOriginalFilename(), file.getName());
+        return channelsService.sendFileMessage(channel, password, filename, FileStorageService.content(file::getInputStream))
+                .map(Utils::messageToPrettyString)
+                .map(it -> it + "\n")
+                .onErrorReturn("Error");
+    }
+
+    @PostMapping("/c/{channel}/{password}/upload/{filename}")
+    public Mono<String> uploadFile(@PathVariable String channel, @PathVariable String password,
+                                   @PathVariable String filename, HttpServletRequest request) throws Exception {
+        if (!channelsService.channelCheckCredentials(channel, password))
+            return Mono.just("Error");
+
+        return channelsService.sendFileMessage(channel, password, filename, FileStorageService.content(request::getInputStream))
                 .map(Utils::messageToPrettyString)
                 .map(it -> it + "\n")
                 .onErrorReturn("Error");
     }
 
     @GetMapping("/c/{channel}/{password}/get-file/{fileId}")
-    public Mono<StreamingResponseBody> downloadFile(
-            @PathVariable String channel, @PathVariable String password, @PathVariable String fileId) throws Exception {
-        return channelsService.getFile(channel, password, fileId).map(FileResponse::streamingResponse);
+    public void downloadFile(
+            @PathVariable String channel, @PathVariable String password, @PathVariable String fileId,
+            HttpServletRequest request, HttpServletResponse response
+    ) throws Exception {
+        var file = channelsService.getFile(channel, password, fileId).block();
+        if (file == null)
+            throw new Exception("File not found");
+
+        FileDownloads.serve(file, request, response);
+    }
+
+    @GetMapping("/c/{channel}/{password}/get-file/{fileId}/thumbnail")
+    public void downloadThumbnail(
+            @PathVariable String channel, @PathVariable String password, @PathVariable String fileId,
+            HttpServletRequest request, HttpServletResponse response
+    ) throws Exception {
+        var file = channelsService.getFile(channel, password, fileId).block();
+        if (file == null)
+            throw new Exception("File not found");
+
+        FileDownloads.serveThumbnail(thumbnailService.thumbnail(fileId, file.contentType()).block(), request, response);
     }
 }
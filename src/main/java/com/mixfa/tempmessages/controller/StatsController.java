@@ -0,0 +1,26 @@
+package com.mixfa.tempmessages.controller;
+
+import com.mixfa.tempmessages.service.StatsSource;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping("/stats")
+@RequiredArgsConstructor
+public class StatsController {
+    private final List<StatsSource> statsSources;
+
+    @GetMapping
+    public Map<String, Object> stats() {
+        var stats = new TreeMap<String, Object>();
+        for (StatsSource source : statsSources)
+            stats.put(source.statsName(), source.stats());
+        return stats;
+    }
+}
@@ -28,7 +28,7 @@ public class Utils {
     public static String messageToPrettyString(Message message) {
         return switch (message) {
             case TextMessage(String text) -> text;
-            case FileMessage(String _, String id) -> "File message: " + id;
+            case FileMessage(String _, String id, String _) -> "File message: " + id;
         };
     }
 
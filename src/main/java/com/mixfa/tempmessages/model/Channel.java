@@ -18,11 +18,14 @@ import java.util.concurrent.CopyOnWriteArrayList;
 @ToString
 @Accessors(fluent = true)
 public class Channel {
+    private static final long BASE_FOOTPRINT = 256;
+
     private final String name;
     private final String passwordHash;
     private final ChannelTopic topic;
     private final Instant creationTime;
     private final List<Object> resources;
+    private volatile long lastAccessTime;
 
     public Channel(
             String name,
@@ -32,6 +35,18 @@ public class Channel {
         this.topic = new ChannelTopic(name);
         this.creationTime = Instant.now();
         this.resources = new CopyOnWriteArrayList<>();
+        this.lastAccessTime = System.currentTimeMillis();
+    }
+
+    public void touch() {
+        this.lastAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Rough estimate of the heap held by this channel, in bytes.
+     */
+    public long footprint() {
+        return BASE_FOOTPRINT + 2L * (name.length() + passwordHash.length());
     }
 
     public <T> T addResource(T resource) {
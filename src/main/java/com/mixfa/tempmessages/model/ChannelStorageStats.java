@@ -0,0 +1,11 @@
+package com.mixfa.tempmessages.model;
+
+public record ChannelStorageStats(
+        int channels,
+        long usedBytes,
+        long maxBytes,
+        long evictions,
+        long expirations,
+        int pendingExpirations
+) {
+}
@@ -0,0 +1,9 @@
+package com.mixfa.tempmessages.model;
+
+public record FanoutStats(
+        long emitted,
+        long dropped,
+        long disconnected,
+        long emitFailures
+) {
+}
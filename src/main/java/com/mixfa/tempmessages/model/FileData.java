@@ -1,7 +1,12 @@
 package com.mixfa.tempmessages.model;
 
+/**
+ * @param path     where the file is on disk, {@code null} while it is kept in memory
+ * @param filename name the file was stored under
+ */
 public record FileData(
         String id,
-        String path
+        String path,
+        String filename
 ) {
 }
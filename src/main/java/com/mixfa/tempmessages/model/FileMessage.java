@@ -3,10 +3,18 @@ package com.mixfa.tempmessages.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.nio.file.Path;
+
+/**
+ * @param path     where the file was stored on disk, {@code null} when it was not or is unknown
+ * @param filename name the file was sent with, so it can be shown without looking the file up;
+ *                 {@code null} for messages stored before it was recorded
+ */
 public record FileMessage(
         @JsonIgnore
         String path,
-        String id
+        String id,
+        String filename
 ) implements Message, Message.Dto {
     @Override
     @JsonProperty
@@ -19,7 +27,18 @@ public record FileMessage(
         return this;
     }
 
+    public FileMessage(String path, String id) {
+        this(path, id, filenameOf(path));
+    }
+
     public FileMessage(FileData fileData) {
-        this(fileData.path(), fileData.id());
+        this(fileData.path(), fileData.id(), fileData.filename());
+    }
+
+    private static String filenameOf(String path) {
+        if (path == null)
+            return null;
+        var filename = Path.of(path).getFileName();
+        return filename == null ? null : filename.toString();
     }
 }
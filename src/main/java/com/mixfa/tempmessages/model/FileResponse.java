@@ -3,10 +3,31 @@ package com.mixfa.tempmessages.model;
 import lombok.NonNull;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * @param size         length of the stored bytes, those at {@code path} if there is one, {@code -1} if unknown
+ * @param etag         quoted strong entity tag, or {@code null}
+ * @param lastModified {@code null} if unknown
+ * @param path         local file with the content, {@code null} if the content can only be streamed
+ * @param contentType  media type of the content, {@code null} to guess it from the filename
+ * @param contentEncoding coding of the bytes at {@code path}, {@code null} if there is none;
+ *                     {@code streamingResponse} always writes the decoded content
+ */
 public record FileResponse(
         @NonNull
         String filename,
         @NonNull
-        StreamingResponseBody streamingResponse
+        StreamingResponseBody streamingResponse,
+        long size,
+        String etag,
+        Instant lastModified,
+        Path path,
+        String contentType,
+        String contentEncoding
 ) {
+    public FileResponse(String filename, StreamingResponseBody streamingResponse) {
+        this(filename, streamingResponse, -1, null, null, null, null, null);
+    }
 }
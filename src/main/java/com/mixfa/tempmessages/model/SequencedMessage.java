@@ -0,0 +1,16 @@
+package com.mixfa.tempmessages.model;
+
+public record SequencedMessage(
+        long sequence,
+        Message message
+) {
+    public Dto toDto() {
+        return new Dto(sequence, message.toDto());
+    }
+
+    public record Dto(
+            long sequence,
+            Message.Dto message
+    ) {
+    }
+}
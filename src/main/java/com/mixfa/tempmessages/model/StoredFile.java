@@ -0,0 +1,29 @@
+package com.mixfa.tempmessages.model;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * What the file storage knows about a stored file without asking the file system.
+ *
+ * @param size        length of the content
+ * @param contentType media type guessed from the filename
+ * @param checksum    hex SHA-256 of the content, {@code null} if unknown
+ * @param encoding    coding of the bytes at {@code path}, {@code null} if they are the content as is
+ * @param storedSize  length of the bytes at {@code path}
+ */
+public record StoredFile(
+        String id,
+        Path path,
+        long size,
+        String contentType,
+        String checksum,
+        Instant createdAt,
+        String encoding,
+        long storedSize
+) {
+    public String filename() {
+        var filename = path.getFileName();
+        return filename == null ? "file" : filename.toString();
+    }
+}
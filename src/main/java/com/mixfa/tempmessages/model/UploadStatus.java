@@ -0,0 +1,25 @@
+package com.mixfa.tempmessages.model;
+
+import java.util.List;
+
+/**
+ * Progress of a chunked upload.
+ *
+ * @param received merged byte ranges written so far, in order
+ */
+public record UploadStatus(
+        String id,
+        String filename,
+        long length,
+        List<Range> received
+) {
+    /**
+     * @param end exclusive
+     */
+    public record Range(long start, long end) {
+    }
+
+    public long receivedBytes() {
+        return received.stream().mapToLong(range -> range.end() - range.start()).sum();
+    }
+}
@@ -0,0 +1,244 @@
+package com.mixfa.tempmessages.route;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.StatsSource;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.shared.Registration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hands new messages to the open channel views of this node.
+ * <p>
+ * All views of a channel share one subscription to its messages, opened by the first view and closed when
+ * the last one is removed. Messages arriving within {@code channel.ui.push-frame} make a single batch, and
+ * each batch is handed to the views in slices on a pool of {@code channel.ui.push-workers} threads, so a
+ * popular channel neither costs a subscription per tab nor pushes to every tab from one thread. A view that
+ * has not caught up with the previous batch is not queued again, it gets both batches at once, and no more
+ * than the latest {@code MAX_PENDING} messages of them.
+ * <p>
+ * A failed subscription is opened again, from the message after the last one handed out; once that keeps
+ * failing, or the channel is gone, the views are told the channel is closed.
+ */
+@Slf4j
+@Component
+public class ChannelBroadcaster implements StatsSource {
+    private static final int MAX_BATCH = 256;
+    private static final int LISTENERS_PER_TASK = 64;
+    // a view shows no more than that anyway
+    private static final int MAX_PENDING = 1000;
+    private static final int MAX_RETRIES = 5;
+    private static final Duration RETRY_BACKOFF = Duration.ofMillis(500);
+
+    private final ReactiveChannelsService channelsService;
+    private final Duration frame;
+    private final ThreadPoolExecutor executor;
+    // guarded by itself
+    private final Map<String, Broadcast> broadcasts = new HashMap<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+
+    public ChannelBroadcaster(ReactiveChannelsService channelsService,
+                              @Value("${channel.ui.push-frame:75ms}") Duration frame,
+                              @Value("${channel.ui.push-workers:4}") int workers) {
+        this.channelsService = channelsService;
+        this.frame = frame;
+        // the queue only ever holds one task per view at most, pending views are skipped
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                Thread.ofPlatform().name("ui-push-", 0).daemon().factory());
+    }
+
+    private static final class Listener {
+        private final UI ui;
+        private final Consumer<List<SequencedMessage>> onMessages;
+        private final Runnable onClosed;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        // guarded by itself
+        private final List<SequencedMessage> received = new ArrayList<>();
+
+        private Listener(UI ui, Consumer<List<SequencedMessage>> onMessages, Runnable onClosed) {
+            this.ui = ui;
+            this.onMessages = onMessages;
+            this.onClosed = onClosed;
+        }
+
+        private void receive(List<SequencedMessage> messages) {
+            synchronized (received) {
+                received.addAll(messages);
+                if (received.size() > MAX_PENDING)
+                    received.subList(0, received.size() - MAX_PENDING).clear();
+            }
+        }
+
+        private List<SequencedMessage> drain() {
+            synchronized (received) {
+                var messages = List.copyOf(received);
+                received.clear();
+                return messages;
+            }
+        }
+    }
+
+    private final class Broadcast {
+        private final String channelName;
+        private final String password;
+        private final Set<Listener> listeners = ConcurrentHashMap.newKeySet();
+        // one past the end of the history until a message came in: only new messages, with their sequences
+        private volatile long nextSequence = Long.MAX_VALUE;
+        private Disposable upstream;
+
+        private Broadcast(String channelName, String password) {
+            this.channelName = channelName;
+            this.password = password;
+        }
+
+        private Flux<SequencedMessage> messages() {
+            return Flux.defer(() -> {
+                        try {
+                            return channelsService.listenMessages(channelName, password, nextSequence);
+                        } catch (Exception ex) {
+                            return Flux.error(ex);
+                        }
+                    })
+                    .doOnNext(message -> nextSequence = message.sequence() + 1)
+                    .retryWhen(Retry.backoff(MAX_RETRIES, RETRY_BACKOFF)
+                            .doBeforeRetry(signal -> log.error(signal.failure().getLocalizedMessage())));
+        }
+
+        private void deliver(List<SequencedMessage> batch) {
+            batches.increment();
+            List<Listener> slice = new ArrayList<>(LISTENERS_PER_TASK);
+            for (Listener listener : listeners) {
+                listener.receive(batch);
+                if (!listener.pending.compareAndSet(false, true))
+                    continue;
+                slice.add(listener);
+                if (slice.size() == LISTENERS_PER_TASK) {
+                    push(slice);
+                    slice = new ArrayList<>(LISTENERS_PER_TASK);
+                }
+            }
+            if (!slice.isEmpty())
+                push(slice);
+        }
+
+        private void push(List<Listener> slice) {
+            executor.execute(() -> {
+                for (Listener listener : slice) {
+                    try {
+                        listener.ui.access(() -> {
+                            listener.pending.set(false);
+                            listener.onMessages.accept(listener.drain());
+                        });
+                        deliveries.increment();
+                    } catch (UIDetachedException ex) {
+                        remove(this, listener);
+                    }
+                }
+            });
+        }
+
+        private void close(Throwable error) {
+            if (error != null)
+                log.error(error.getLocalizedMessage());
+            synchronized (broadcasts) {
+                broadcasts.remove(channelName, this);
+            }
+            for (Listener listener : listeners) {
+                try {
+                    listener.ui.access(listener.onClosed::run);
+                } catch (UIDetachedException ignored) {
+                    // nobody left to tell
+                }
+            }
+            listeners.clear();
+        }
+    }
+
+    /**
+     * Calls {@code onMessages} under the lock of {@code ui} with the messages sent to the channel since
+     * the previous call, in order, until the returned registration is removed, or {@code onClosed} once
+     * the channel is closed. A channel that does not exist yet is created, as opening it always did.
+     */
+    public Registration register(String channelName, String password, UI ui,
+                                 Consumer<List<SequencedMessage>> onMessages, Runnable onClosed) throws Exception {
+        if (!channelsService.channelExists(channelName))
+            // whoever created it in the meantime has the say on the password
+            channelsService.createChannel(channelName, password).onErrorComplete().block();
+        if (!channelsService.channelCheckCredentials(channelName, password))
+            throw new Exception("Password not matches");
+
+        var listener = new Listener(ui, onMessages, onClosed);
+        Broadcast broadcast;
+        synchronized (broadcasts) {
+            broadcast = broadcasts.get(channelName);
+            if (broadcast == null) {
+                var created = new Broadcast(channelName, password);
+                created.upstream = created.messages()
+                        .bufferTimeout(MAX_BATCH, frame)
+                        .subscribe(created::deliver, created::close, () -> created.close(null));
+                if (created.upstream.isDisposed())
+                    throw new Exception("Channel not found");
+                broadcast = created;
+                broadcasts.put(channelName, broadcast);
+            }
+            broadcast.listeners.add(listener);
+        }
+
+        var registered = broadcast;
+        return () -> remove(registered, listener);
+    }
+
+    private void remove(Broadcast broadcast, Listener listener) {
+        synchronized (broadcasts) {
+            if (!broadcast.listeners.remove(listener) || !broadcast.listeners.isEmpty())
+                return;
+            broadcasts.remove(broadcast.channelName, broadcast);
+        }
+        broadcast.upstream.dispose();
+    }
+
+    @Override
+    public String statsName() {
+        return "broadcaster";
+    }
+
+    @Override
+    public Object stats() {
+        int channels;
+        int listeners = 0;
+        synchronized (broadcasts) {
+            channels = broadcasts.size();
+            for (Broadcast broadcast : broadcasts.values())
+                listeners += broadcast.listeners.size();
+        }
+        return Map.of(
+                "channels", channels,
+                "listeners", listeners,
+                "batches", batches.sum(),
+                "deliveries", deliveries.sum(),
+                "queued", executor.getQueue().size()
+        );
+    }
+}
@@ -3,53 +3,90 @@ package com.mixfa.tempmessages.route;
 import com.mixfa.tempmessages.misc.Utils;
 import com.mixfa.tempmessages.model.FileMessage;
 import com.mixfa.tempmessages.model.FileResponse;
-import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
 import com.mixfa.tempmessages.model.TextMessage;
+import com.mixfa.tempmessages.service.FileStorageService;
 import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.impl.ThumbnailService;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.Text;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
 import com.vaadin.flow.component.applayout.AppLayout;
 import com.vaadin.flow.component.avatar.Avatar;
 import com.vaadin.flow.component.html.Anchor;
 import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.html.Image;
 import com.vaadin.flow.component.messages.MessageInput;
 import com.vaadin.flow.component.notification.Notification;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.component.upload.Upload;
-import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
 import com.vaadin.flow.component.virtuallist.VirtualList;
+import com.vaadin.flow.data.provider.DataProvider;
 import com.vaadin.flow.data.renderer.ComponentRenderer;
 import com.vaadin.flow.router.BeforeEnterEvent;
 import com.vaadin.flow.router.BeforeEnterObserver;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.server.StreamResource;
+import com.vaadin.flow.server.StreamResourceWriter;
+import com.vaadin.flow.shared.Registration;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import reactor.core.Disposable;
+import org.springframework.web.util.UriUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 @Slf4j
 @Route("channel/:name/:password")
 public class ChannelRoute extends AppLayout implements BeforeEnterObserver {
+    private static final int MAX_CACHED_PAGES = 8;
+    private static final int MAX_UI_MESSAGES = 1000;
+    private static final String THUMBNAIL_SIZE = "256px";
+    private static final int UPLOAD_PIPE_SIZE = 64 * 1024;
+
     private final ReactiveChannelsService channelsService;
+    private final ThumbnailService thumbnailService;
+    private final ChannelBroadcaster channelBroadcaster;
+    // keyed by the request thread: Vaadin opens the stream and fires the outcome of an upload on the
+    // thread that receives it, and the events carry nothing else that tells two same-named uploads apart
+    private final Map<Thread, UploadPipe> pendingUploads = new ConcurrentHashMap<>();
     private String channelName;
     private String channelPassword;
-    private Disposable chatSubscription;
+    private Registration messagesRegistration;
+    private final MessagePages pages = new MessagePages(MAX_CACHED_PAGES, MAX_UI_MESSAGES);
 
-    public ChannelRoute(ReactiveChannelsService channelsService) {
+    public ChannelRoute(ReactiveChannelsService channelsService, ThumbnailService thumbnailService,
+                        ChannelBroadcaster channelBroadcaster) {
         this.channelsService = channelsService;
+        this.thumbnailService = thumbnailService;
+        this.channelBroadcaster = channelBroadcaster;
     }
 
-    private ComponentRenderer<Component, Message> makeMessageRenderer() {
-        return new ComponentRenderer<>(message -> {
+    /**
+     * Served by the REST endpoint, so browsers can cache it; the original is only fetched on download.
+     */
+    private Image prepareThumbnail(String fileId, String filename) {
+        var src = "/v1/c/" + UriUtils.encodePathSegment(channelName, StandardCharsets.UTF_8)
+                + "/" + UriUtils.encodePathSegment(channelPassword, StandardCharsets.UTF_8)
+                + "/get-file/" + UriUtils.encodePathSegment(fileId, StandardCharsets.UTF_8) + "/thumbnail";
+        return new Image(src, filename) {{
+            setMaxWidth(THUMBNAIL_SIZE);
+            setMaxHeight(THUMBNAIL_SIZE);
+        }};
+    }
+
+    private ComponentRenderer<Component, SequencedMessage> makeMessageRenderer() {
+        return new ComponentRenderer<>(sequenced -> {
+            var message = sequenced.message();
             HorizontalLayout cardLayout = new HorizontalLayout();
             cardLayout.setMargin(true);
 
@@ -62,23 +99,13 @@ public class ChannelRoute extends AppLayout implements BeforeEnterObserver {
             }};
             switch (message) {
                 case TextMessage(String text) -> infoLayout.add(new Div(new Text(text)));
-                case FileMessage(String _, String id) -> {
-
-                    FileResponse fileResponse;
-                    try {
-                        fileResponse = channelsService.getFile(channelName, channelPassword, id).block();
-                    } catch (Exception e) {
-                        log.error(e.getLocalizedMessage());
-                        break;
-                    }
-                    if (fileResponse == null) {
-                        Notification.show("Error, can`t find file");
-                        log.error("fileResponse is null, id = {}", id);
-                        break;
-                    }
-
-                    var anchor = prepareAnchor(fileResponse);
-                    infoLayout.add(new Div(anchor));
+                // rendered from the message alone, the file is only looked up when it is downloaded
+                case FileMessage fileMessage -> {
+                    var id = fileMessage.id();
+                    var filename = fileMessage.filename() == null ? id : fileMessage.filename();
+                    if (thumbnailService.supports(fileMessage))
+                        infoLayout.add(prepareThumbnail(id, filename));
+                    infoLayout.add(new Div(prepareAnchor(id, filename)));
                 }
             }
 
@@ -87,28 +114,80 @@ public class ChannelRoute extends AppLayout implements BeforeEnterObserver {
         });
     }
 
+    /**
+     * Runs on a pusher thread rather than under the session lock, see {@link #makeContent()}.
+     */
+    private Stream<SequencedMessage> fetchMessages(long offset, long limit) {
+        var name = channelName;
+        var password = channelPassword;
+        try {
+            return pages.fetch(offset, limit, (fromSequence, pageSize) ->
+                    channelsService.readMessages(name, password, fromSequence, pageSize).collectList().block()).stream();
+        } catch (Exception e) {
+            log.error(e.getLocalizedMessage());
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Looks the history up off the session lock, then shows its end.
+     */
+    private void startPages(UI ui, VirtualList<SequencedMessage> messageList) throws Exception {
+        Mono.zip(
+                        channelsService.countMessages(channelName, channelPassword),
+                        channelsService.readMessages(channelName, channelPassword, -1, 1)
+                                .map(SequencedMessage::sequence)
+                                .next()
+                                .defaultIfEmpty(-1L)
+                )
+                .subscribe(countAndLast -> {
+                    try {
+                        ui.access(() -> {
+                            pages.start(countAndLast.getT2(), countAndLast.getT1());
+                            messageList.getDataProvider().refreshAll();
+                            messageList.scrollToEnd();
+                        });
+                    } catch (UIDetachedException ignored) {
+                        // closed before the history came in
+                    }
+                }, ex -> log.error(ex.getLocalizedMessage()));
+    }
+
+    private static void notifyFailedUpload(UI ui) {
+        try {
+            ui.access(() -> Notification.show("Error, during sending file"));
+        } catch (UIDetachedException ignored) {
+            // closed before the upload was settled
+        }
+    }
+
     @SneakyThrows
     private Component makeContent() {
         var layout = new VerticalLayout();
         layout.setWidth("1000px");
         layout.setHeightFull();
 
-        var messageList = new VirtualList<Message>();
+        var messageList = new VirtualList<SequencedMessage>();
         messageList.setRenderer(makeMessageRenderer());
 
-        var messagesImmutableList = channelsService.listMessages(channelName, channelPassword, 0, 20)
-                .collectList().block();
-
-        var messages = new CopyOnWriteArrayList<>(messagesImmutableList != null ? messagesImmutableList : List.of());
-
-        messageList.setItems(messages);
+        // history is fetched in pages as the list scrolls, on a pusher thread so a slow read does not hold
+        // the session; the size is only ever read from the pages
+        messageList.setDataProvider(DataProvider.fromCallbacks(
+                query -> fetchMessages(query.getOffset(), query.getLimit()),
+                _ -> pages.size()));
+        messageList.getDataCommunicator().enablePushUpdates(task -> Schedulers.boundedElastic().schedule(task));
 
         var ui = UI.getCurrent();
-        chatSubscription = channelsService.listenMessages(channelName, channelPassword)
-                .subscribe(newMessage -> {
-                    messages.addLast(newMessage);
-                    ui.access(() -> messageList.setItems(messages));
-                });
+        var dataProvider = messageList.getDataProvider();
+        messagesRegistration = channelBroadcaster.register(channelName, channelPassword, ui, messages -> {
+            // growing or shifting a lazy list takes a refresh, the rows in view are then served from the pages
+            if (pages.append(messages))
+                dataProvider.refreshAll();
+        }, () -> {
+            Notification.show("Channel closed");
+            ui.navigate(EnterRoute.class);
+        });
+        startPages(ui, messageList);
 
         var messageInput = new MessageInput(event -> {
             try {
@@ -119,16 +198,42 @@ public class ChannelRoute extends AppLayout implements BeforeEnterObserver {
         });
         messageInput.setWidthFull();
 
-        var buffer = new MemoryBuffer();
-        var fileUpload = new Upload(buffer);
-        fileUpload.addSucceededListener(_ -> {
+        // uploads are piped into sendFileMessage like the REST ones, so the quotas are checked as the bytes
+        // arrive and a file is only kept once its message is sent
+        var fileUpload = new Upload((fileName, _) -> {
             try {
-                channelsService.sendFileMessage(channelName, channelPassword, buffer.getFileName(), buffer.getInputStream()).subscribe();
+                if (!channelsService.channelCheckCredentials(channelName, channelPassword))
+                    throw new Exception("Password not matches");
+
+                var pipe = new UploadPipe(UPLOAD_PIPE_SIZE);
+                channelsService.sendFileMessage(channelName, channelPassword, fileName, FileStorageService.content(pipe::inputStream))
+                        .doFinally(_ -> pipe.close())
+                        .subscribe(_ -> {}, ex -> {
+                            log.error(ex.getLocalizedMessage());
+                            notifyFailedUpload(ui);
+                        });
+                var abandoned = pendingUploads.put(Thread.currentThread(), pipe);
+                if (abandoned != null)
+                    abandoned.failed();
+                return pipe.outputStream();
             } catch (Exception e) {
-                Notification.show("Error, during sending file");
                 log.error(e.getLocalizedMessage());
+                return OutputStream.nullOutputStream();
             }
         });
+        fileUpload.addSucceededListener(_ -> {
+            var pipe = pendingUploads.remove(Thread.currentThread());
+            if (pipe == null) {
+                Notification.show("Error, during sending file");
+                return;
+            }
+            pipe.succeeded();
+        });
+        fileUpload.addFailedListener(_ -> {
+            var pipe = pendingUploads.remove(Thread.currentThread());
+            if (pipe != null)
+                pipe.failed();
+        });
 
         layout.add(messageList, new VerticalLayout(messageInput, fileUpload) {{
             setWidthFull();
@@ -138,30 +243,31 @@ public class ChannelRoute extends AppLayout implements BeforeEnterObserver {
 
     @Override
     protected void onDetach(DetachEvent detachEvent) {
-        chatSubscription.dispose();
+        messagesRegistration.remove();
         super.onDetach(detachEvent);
     }
 
-    private static Anchor prepareAnchor(FileResponse fileResponse) {
-        StreamResource resource = new StreamResource(fileResponse.filename(), () -> {
+    /**
+     * Vaadin calls the writer on the download request without holding the session lock,
+     * so the file is resolved and streamed there rather than while the row is rendered.
+     */
+    private Anchor prepareAnchor(String fileId, String filename) {
+        var name = channelName;
+        var password = channelPassword;
+        var resource = new StreamResource(filename, (StreamResourceWriter) (outputStream, _) -> {
+            FileResponse fileResponse;
             try {
-                PipedOutputStream pos = new PipedOutputStream();
-                PipedInputStream pis = new PipedInputStream(pos);
-
-                try {
-                    fileResponse.streamingResponse().writeTo(pos);
-                    pos.close();
-                } catch (IOException ex) {
-                    throw new RuntimeException("Streaming failed", ex);
-                }
-
-                return pis;
-            } catch (IOException e) {
-                throw new RuntimeException("Pipe creation failed", e);
+                fileResponse = channelsService.getFile(name, password, fileId).block();
+            } catch (Exception ex) {
+                throw new IOException(ex.getLocalizedMessage(), ex);
             }
+            if (fileResponse == null)
+                throw new IOException("File not found: " + fileId);
+
+            fileResponse.streamingResponse().writeTo(outputStream);
         });
 
-        return new Anchor(resource, fileResponse.filename()) {{
+        return new Anchor(resource, filename) {{
             getElement().setAttribute("download", true);
         }};
     }
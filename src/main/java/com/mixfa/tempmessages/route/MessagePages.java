@@ -0,0 +1,173 @@
+package com.mixfa.tempmessages.route;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A channel's history as the message list of a view sees it: the latest {@code maxRows} messages at most.
+ * <p>
+ * Row {@code i} is the message with sequence {@code origin + i}. New messages are appended as they arrive,
+ * and once there are more than {@code maxRows} rows the origin moves past the oldest ones. Messages are
+ * cached in pages of sequences, up to {@code maxPages} of them. Rows whose message is gone from the history
+ * show {@link #EXPIRED}.
+ */
+final class MessagePages {
+    static final int PAGE_SIZE = 50;
+    static final Message EXPIRED = new TextMessage("Message expired");
+
+    @FunctionalInterface
+    interface Loader {
+        /**
+         * Up to {@code limit} retained messages from {@code fromSequence} on.
+         */
+        List<SequencedMessage> load(long fromSequence, int limit) throws Exception;
+    }
+
+    private final int maxPages;
+    private final int maxRows;
+    // guarded by this, access ordered, keyed by sequence / PAGE_SIZE
+    private final Map<Long, SequencedMessage[]> pages;
+    private boolean started;
+    private long origin;
+    private long size;
+    // arrived before the history was looked up
+    private final List<SequencedMessage> early = new ArrayList<>();
+
+    MessagePages(int maxPages, int maxRows) {
+        this.maxPages = maxPages;
+        this.maxRows = maxRows;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SequencedMessage[]> eldest) {
+                return size() > MessagePages.this.maxPages;
+            }
+        };
+    }
+
+    /**
+     * Sets the list up from the history: {@code count} retained messages, the newest one being
+     * {@code lastSequence}, or none yet if it is {@code -1}.
+     */
+    synchronized void start(long lastSequence, long count) {
+        started = true;
+        if (lastSequence >= 0) {
+            size = Math.min(count, maxRows);
+            origin = lastSequence + 1 - size;
+        } else {
+            // the first message sent decides
+            origin = -1;
+        }
+        append(List.copyOf(early));
+        early.clear();
+    }
+
+    /**
+     * Adds messages that were just sent to the cache.
+     *
+     * @return whether the rows changed, by growing or by dropping the oldest ones
+     */
+    synchronized boolean append(List<SequencedMessage> messages) {
+        if (!started) {
+            early.addAll(messages);
+            return false;
+        }
+
+        var changed = false;
+        for (SequencedMessage message : messages) {
+            var sequence = message.sequence();
+            if (origin < 0)
+                origin = sequence;
+            if (sequence < origin)
+                continue;
+            // messages the view missed are in the history, their pages are loaded when shown
+            if (sequence > origin + size)
+                pages.keySet().removeIf(pageKey -> pageKey >= (origin + size) / PAGE_SIZE && pageKey <= sequence / PAGE_SIZE);
+
+            var pageKey = sequence / PAGE_SIZE;
+            var page = pages.get(pageKey);
+            // a page that already has rows is loaded when it is shown, with this message in it
+            if (page == null && sequence == origin + size && Math.max(pageKey * PAGE_SIZE, origin) == sequence) {
+                page = new SequencedMessage[PAGE_SIZE];
+                pages.put(pageKey, page);
+            }
+            if (page != null)
+                page[(int) (sequence % PAGE_SIZE)] = message;
+            if (sequence >= origin + size) {
+                size = sequence - origin + 1;
+                changed = true;
+            }
+        }
+
+        if (size > maxRows) {
+            origin += size - maxRows;
+            size = maxRows;
+            pages.keySet().removeIf(pageKey -> (pageKey + 1) * PAGE_SIZE <= origin);
+        }
+        return changed;
+    }
+
+    synchronized int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rows {@code [offset, offset + limit)}, loading the pages that are not cached with {@code loader},
+     * which may block: the lock is not held meanwhile.
+     */
+    List<SequencedMessage> fetch(long offset, long limit, Loader loader) throws Exception {
+        long origin;
+        long end;
+        synchronized (this) {
+            origin = this.origin;
+            end = Math.min(offset + limit, size);
+        }
+
+        var rows = new ArrayList<SequencedMessage>((int) Math.max(end - offset, 0));
+        for (long sequence = origin + offset; sequence < origin + end; ) {
+            var pageKey = sequence / PAGE_SIZE;
+            var page = page(pageKey, loader);
+            var pageEnd = Math.min(origin + end, (pageKey + 1) * PAGE_SIZE);
+            for (; sequence < pageEnd; sequence++) {
+                var message = page[(int) (sequence % PAGE_SIZE)];
+                rows.add(message == null ? new SequencedMessage(sequence, EXPIRED) : message);
+            }
+        }
+        return rows;
+    }
+
+    private SequencedMessage[] page(long pageKey, Loader loader) throws Exception {
+        synchronized (this) {
+            var page = pages.get(pageKey);
+            if (page != null)
+                return page;
+        }
+
+        var from = pageKey * PAGE_SIZE;
+        var loaded = new SequencedMessage[PAGE_SIZE];
+        for (SequencedMessage message : loader.load(from, PAGE_SIZE)) {
+            // evicted messages are skipped, so the load can run past the page
+            if (message.sequence() < from || message.sequence() >= from + PAGE_SIZE)
+                continue;
+            loaded[(int) (message.sequence() - from)] = message;
+        }
+
+        synchronized (this) {
+            // messages appended while it was loading are kept
+            var page = pages.get(pageKey);
+            if (page != null) {
+                for (int i = 0; i < PAGE_SIZE; i++)
+                    if (page[i] == null)
+                        page[i] = loaded[i];
+                return page;
+            }
+            pages.put(pageKey, loaded);
+            return loaded;
+        }
+    }
+}
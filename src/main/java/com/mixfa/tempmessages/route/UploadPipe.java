@@ -0,0 +1,76 @@
+package com.mixfa.tempmessages.route;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands what an {@code Upload} writes on the request thread to a reader on another thread.
+ * <p>
+ * The upload closes its stream before it reports the outcome, so at the end of the bytes the reader
+ * waits for {@link #succeeded()} or {@link #failed()}: an interrupted upload fails the read instead of
+ * passing for a complete file. Closing the pipe fails the writes still to come.
+ */
+final class UploadPipe {
+    private static final long OUTCOME_TIMEOUT_SECONDS = 60;
+
+    private final PipedInputStream input;
+    private final PipedOutputStream output;
+    private final CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+
+    UploadPipe(int size) throws IOException {
+        this.input = new PipedInputStream(size);
+        this.output = new PipedOutputStream(input);
+    }
+
+    OutputStream outputStream() {
+        return output;
+    }
+
+    InputStream inputStream() {
+        return new FilterInputStream(input) {
+            @Override
+            public int read() throws IOException {
+                return ended(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return ended(super.read(b, off, len));
+            }
+        };
+    }
+
+    private int ended(int read) throws IOException {
+        if (read >= 0)
+            return read;
+
+        try {
+            if (outcome.get(OUTCOME_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                return read;
+        } catch (Exception ignored) {
+        }
+        throw new IOException("Upload interrupted");
+    }
+
+    void succeeded() {
+        outcome.complete(true);
+    }
+
+    void failed() {
+        outcome.complete(false);
+    }
+
+    void close() {
+        failed();
+        try {
+            input.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
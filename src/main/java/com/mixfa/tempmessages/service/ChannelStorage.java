@@ -2,10 +2,13 @@ package com.mixfa.tempmessages.service;
 
 import com.mixfa.tempmessages.TempMessagesApplication;
 import com.mixfa.tempmessages.model.Channel;
+import com.mixfa.tempmessages.model.ChannelStorageStats;
 import com.mixfa.tempmessages.service.impl.MapChannelStorageImpl;
+import com.mixfa.tempmessages.service.impl.VerifiedCredentialsCache;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
@@ -20,12 +23,41 @@ public interface ChannelStorage<ChannelType extends Channel> {
 
     boolean channelExists(String channelName);
 
+    /**
+     * Live channels; a weakly consistent view that does not refresh their time to live.
+     */
+    Collection<ChannelType> channels();
+
     boolean channelCheckCredentials(String channelName, String password);
 
     void subscribeToChannelDestruction(Consumer<ChannelType> handler);
 
+    int pendingExpirations();
+
+    ChannelStorageStats stats();
+
+    /**
+     * @param maxBytes budget for the estimated footprint of all channels, {@code 0} for unbounded
+     */
+    record Settings(
+            Duration timeToLive,
+            boolean slidingTimeToLive,
+            long maxBytes
+    ) {
+        public static final Settings DEFAULT = new Settings(Duration.ofDays(1), false, 0);
+    }
+
     static <T extends Channel> ChannelStorage<T> local(BiFunction<String, String, T> constructor) {
-        var passwordEncoder = TempMessagesApplication.getApplicationContext().getBean(PasswordEncoder.class);
-        return new MapChannelStorageImpl<>(constructor, passwordEncoder, Duration.ofDays(1));
+        return local(constructor, Settings.DEFAULT);
+    }
+
+    static <T extends Channel> ChannelStorage<T> local(BiFunction<String, String, T> constructor, Settings settings) {
+        var context = TempMessagesApplication.getApplicationContext();
+        return new MapChannelStorageImpl<>(
+                constructor,
+                context.getBean(PasswordEncoder.class),
+                context.getBean(VerifiedCredentialsCache.class),
+                settings
+        );
     }
 }
@@ -2,16 +2,93 @@ package com.mixfa.tempmessages.service;
 
 import com.mixfa.tempmessages.model.FileData;
 import com.mixfa.tempmessages.model.FileResponse;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpRange;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 public interface FileStorageService {
+    int BUFFER_SIZE = 64 * 1024;
+
     FileData write(MultipartFile file) throws Exception;
 
     FileData write(String filename, InputStream inputStream) throws Exception;
 
+    /**
+     * Stores {@code content} as it arrives without blocking on disk I/O; every buffer is released
+     * once written. Nothing is stored until the returned {@link Mono} is subscribed.
+     */
+    Mono<FileData> write(String filename, Flux<DataBuffer> content);
+
+    /**
+     * Takes over a file that was already written elsewhere under the storage root, moving rather
+     * than copying it where possible. Size limits are up to the caller.
+     */
+    FileData store(String filename, Path source) throws Exception;
+
+    FileUpload openUpload(String filename) throws Exception;
+
     FileResponse read(String id) throws Exception;
 
+    /**
+     * Streams the stored content, or only the part selected by {@code range} unless it is {@code null}.
+     * The subscriber has to release every buffer it receives.
+     */
+    Flux<DataBuffer> read(String id, HttpRange range);
+
     void delete(String id)  throws Exception;
+
+    /**
+     * Keeps a small file derived from {@code id}, such as a preview, under the name {@code variant};
+     * variants are deleted together with the file.
+     */
+    void writeVariant(String id, String variant, byte[] content) throws Exception;
+
+    /**
+     * @return {@code null} if there is no such variant
+     */
+    FileResponse readVariant(String id, String variant) throws Exception;
+
+    /**
+     * Bytes the stored files take, in memory or on disk.
+     */
+    long usedBytes();
+
+    /**
+     * Bytes the given files take; ids that are not stored count as nothing.
+     */
+    long usedBytes(Collection<String> ids);
+
+    /**
+     * Every id that has something under the storage root, including the leftovers of interrupted writes.
+     */
+    List<String> ids() throws Exception;
+
+    /**
+     * Deletes {@code id} together with whatever an interrupted write left of it, unless any of it
+     * was modified after {@code cutoff}.
+     *
+     * @return bytes reclaimed, {@code -1} if the id was kept
+     */
+    long sweep(String id, Instant cutoff) throws Exception;
+
+    /**
+     * Adapts a blocking stream, such as a request body, to {@link #write(String, Flux)}; the stream is
+     * read on the bounded elastic scheduler and closed once it is drained.
+     */
+    static Flux<DataBuffer> content(Callable<InputStream> inputStreamSupplier) {
+        return DataBufferUtils.readInputStream(inputStreamSupplier, DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
 }
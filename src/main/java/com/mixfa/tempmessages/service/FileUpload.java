@@ -0,0 +1,18 @@
+package com.mixfa.tempmessages.service;
+
+import com.mixfa.tempmessages.model.FileData;
+
+import java.io.OutputStream;
+
+/**
+ * A file that is written straight into storage as its bytes arrive.
+ * <p>
+ * Exactly one of {@link #complete()} or {@link #abort()} has to be called once writing is over.
+ */
+public interface FileUpload {
+    OutputStream outputStream();
+
+    FileData complete() throws Exception;
+
+    void abort();
+}
@@ -3,24 +3,63 @@ package com.mixfa.tempmessages.service;
 import com.mixfa.tempmessages.model.Channel;
 import com.mixfa.tempmessages.model.FileResponse;
 import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import org.springframework.core.io.buffer.DataBuffer;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.InputStream;
-
 public interface ReactiveChannelsService {
     Flux<Message> listenMessages(String channelName, String password) throws Exception;
 
+    /**
+     * Replays the channel history from {@code fromSequence} and then keeps following live messages,
+     * without gaps or duplicates in between. A negative {@code fromSequence} starts that many messages
+     * before the end of the history, one past the end follows only new messages. Messages already
+     * evicted from the history are skipped.
+     */
+    Flux<SequencedMessage> listenMessages(String channelName, String password, long fromSequence) throws Exception;
+
     Flux<Message> listMessages(String channelName, String password, long offset, long limit) throws Exception;
 
+    /**
+     * Up to {@code limit} retained messages from {@code fromSequence} on, skipping evicted ones;
+     * a negative {@code fromSequence} starts that many messages before the end of the history.
+     */
+    Flux<SequencedMessage> readMessages(String channelName, String password, long fromSequence, long limit) throws Exception;
+
+    /**
+     * Number of messages {@link #listMessages} can currently page through.
+     */
+    Mono<Long> countMessages(String channelName, String password) throws Exception;
+
     Mono<Channel> createChannel(String channelName, String password) throws Exception;
 
     Mono<Message> sendMessage(String channelName, String password, Message payload) throws Exception;
 
-    Mono<Message> sendFileMessage(String channelName, String password, String filename, InputStream inputStream) throws Exception;
+    /**
+     * Checks the credentials once and appends the messages in batches, emitting the sequenced
+     * messages in the order they were sent.
+     */
+    Flux<SequencedMessage> sendMessages(String channelName, String password, Flux<? extends Message> payloads) throws Exception;
+
+    /**
+     * Checks the credentials, stores {@code content} without blocking on disk I/O and then sends
+     * the file message; nothing is stored until the returned {@link Mono} is subscribed.
+     */
+    Mono<Message> sendFileMessage(String channelName, String password, String filename, Flux<DataBuffer> content) throws Exception;
 
     Mono<FileResponse> getFile(String channelName, String password, String id) throws Exception;
 
+    /**
+     * Ids of the files sent to the channel.
+     */
+    Flux<String> listFiles(String channelName, String password) throws Exception;
+
+    /**
+     * Ids of the files of every live channel, for reconciling the file storage with the channels.
+     */
+    Flux<String> listAllFiles();
+
     boolean channelExists(String channelName);
 
     boolean channelCheckCredentials(String channelName, String password);
@@ -0,0 +1,10 @@
+package com.mixfa.tempmessages.service;
+
+/**
+ * Bean that publishes runtime counters under {@code /stats}.
+ */
+public interface StatsSource {
+    String statsName();
+
+    Object stats();
+}
@@ -0,0 +1,32 @@
+package com.mixfa.tempmessages.service;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.UploadStatus;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Chunked, resumable uploads of files sent to a channel.
+ */
+public interface UploadSessionService {
+    /**
+     * Opens a session for a file of {@code length} bytes; the whole length counts against the storage
+     * quotas until the session is completed or dropped.
+     */
+    Mono<UploadStatus> create(String channelName, String password, String filename, long length) throws Exception;
+
+    /**
+     * Writes {@code chunk} at {@code offset}; chunks may overlap, arrive in any order and concurrently.
+     */
+    Mono<UploadStatus> write(String channelName, String password, String id, long offset, Flux<DataBuffer> chunk) throws Exception;
+
+    Mono<UploadStatus> status(String channelName, String password, String id) throws Exception;
+
+    /**
+     * Moves the completed file into storage and sends it to the channel; the session is gone afterwards.
+     */
+    Mono<Message> complete(String channelName, String password, String id) throws Exception;
+
+    Mono<Void> abort(String channelName, String password, String id) throws Exception;
+}
@@ -4,56 +4,94 @@ import com.mixfa.tempmessages.model.Channel;
 import com.mixfa.tempmessages.model.FileMessage;
 import com.mixfa.tempmessages.model.FileResponse;
 import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
 import com.mixfa.tempmessages.service.ChannelStorage;
 import com.mixfa.tempmessages.service.FileStorageService;
 import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.StatsSource;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
-import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 @Getter
 @Accessors(fluent = true)
 class ChannelWithMessages extends Channel {
-    private final List<Message> messages = new CopyOnWriteArrayList<>();
-    private final Sinks.Many<Message> messageSink;
-    private final Flux<Message> messageFlux;
+    private static final long SUBSCRIBER_FOOTPRINT = 1024;
+    private static final long FILE_ID_FOOTPRINT = 64;
+
+    private final MessageLog messages;
+    private final MessageFanout<SequencedMessage> fanout;
 
     private final Set<String> filesIDs = new CopyOnWriteArraySet<>();
 
-    public ChannelWithMessages(String name, String passwordHash) {
+    public ChannelWithMessages(String name, String passwordHash, MessageLog messages, MessageFanout<SequencedMessage> fanout) {
         super(name, passwordHash);
-        this.messageSink = Sinks.many().multicast().onBackpressureBuffer();
-        this.messageFlux = messageSink.asFlux().share();
+        this.messages = messages;
+        this.fanout = fanout;
+    }
+
+    @Override
+    public long footprint() {
+        return super.footprint()
+                + messages.heapBytes()
+                + SUBSCRIBER_FOOTPRINT * fanout.subscriberCount()
+                + FILE_ID_FOOTPRINT * filesIDs.size();
     }
 }
 
 @Slf4j
 @Service
 @Profile("standalone")
-public class ChannelsServiceImpl implements ReactiveChannelsService {
+public class ChannelsServiceImpl implements ReactiveChannelsService, StatsSource {
     private final ChannelStorage<ChannelWithMessages> channelStorage;
     private final FileStorageService fileStorageService;
+    private final StorageQuotas storageQuotas;
+    private final ThumbnailService thumbnailService;
+    private final MessageFanout.Counters fanoutCounters = new MessageFanout.Counters();
+    private static final int REPLAY_PAGE_SIZE = 256;
+    private static final int SEND_BATCH_SIZE = 256;
+    private static final Duration SEND_BATCH_LINGER = Duration.ofMillis(10);
 
-    public ChannelsServiceImpl(FileStorageService fileStorageService) {
-        this.channelStorage = ChannelStorage.local(ChannelWithMessages::new);
+    public ChannelsServiceImpl(FileStorageService fileStorageService,
+                               StorageQuotas storageQuotas,
+                               ThumbnailService thumbnailService,
+                               MessageLogFactory messageLogFactory,
+                               @Value("${channel.time-to-live:1d}") Duration timeToLive,
+                               @Value("${channel.sliding-time-to-live:false}") boolean slidingTimeToLive,
+                               @Value("${channel.storage.max-size:256MB}") DataSize maxSize,
+                               @Value("${channel.subscribers.buffer-size:256}") int subscriberBufferSize,
+                               @Value("${channel.subscribers.overflow-policy:drop-oldest}") MessageFanout.OverflowPolicy overflowPolicy) {
+        this.channelStorage = ChannelStorage.local(
+                (name, passwordHash) -> new ChannelWithMessages(
+                        name, passwordHash,
+                        messageLogFactory.newLog(),
+                        new MessageFanout<>(subscriberBufferSize, overflowPolicy, fanoutCounters)
+                ),
+                new ChannelStorage.Settings(timeToLive, slidingTimeToLive, maxSize.toBytes())
+        );
         this.fileStorageService = fileStorageService;
+        this.storageQuotas = storageQuotas;
+        this.thumbnailService = thumbnailService;
 
         channelStorage.subscribeToChannelDestruction(this::onChannelDestruction);
     }
 
     private void onChannelDestruction(ChannelWithMessages channel) {
-        channel.messageSink().tryEmitComplete();
+        channel.fanout().complete();
+        channel.messages().delete();
         for (String filesID : channel.filesIDs()) {
             try {
                 fileStorageService.delete(filesID);
@@ -66,13 +104,54 @@ public class ChannelsServiceImpl implements ReactiveChannelsService {
     @Override
     public Flux<Message> listenMessages(String channelName, String password) throws Exception {
         var channel = channelStorage.getChannelOrCreate(channelName, password);
-        return channel.messageFlux();
+        return channel.fanout().flux().map(SequencedMessage::message);
+    }
+
+    private static Flux<SequencedMessage> readHistory(ChannelWithMessages channel, long fromSequence, long toSequence) {
+        return Flux.<List<SequencedMessage>, Long>generate(() -> fromSequence, (cursor, sink) -> {
+                    var page = cursor < toSequence
+                            ? channel.messages().read(cursor, Math.min(REPLAY_PAGE_SIZE, toSequence - cursor))
+                            : List.<SequencedMessage>of();
+                    if (page.isEmpty()) {
+                        sink.complete();
+                        return cursor;
+                    }
+                    sink.next(page);
+                    return page.getLast().sequence() + 1;
+                })
+                .concatMapIterable(page -> page);
+    }
+
+    @Override
+    public Flux<SequencedMessage> listenMessages(String channelName, String password, long fromSequence) throws Exception {
+        var channel = channelStorage.getChannelOrCreate(channelName, password);
+        return ReplayThenLive.of(
+                Mono.fromSupplier(() -> channel.fanout().flux()),
+                Mono.fromSupplier(() -> {
+                    var messages = channel.messages();
+                    return Math.max(fromSequence < 0 ? messages.nextSequence() + fromSequence : Math.min(fromSequence, messages.nextSequence()), 0);
+                }),
+                (from, to) -> readHistory(channel, from, to)
+        );
     }
 
     @Override
     public Flux<Message> listMessages(String channelName, String password, long offset, long limit) throws Exception {
-        return Flux.fromStream(channelStorage.getChannelOrCreate(channelName, password)
-                .messages().stream().skip(offset).limit(limit));
+        var channel = channelStorage.getChannelOrCreate(channelName, password);
+        return Flux.fromIterable(channel.messages().window(offset, limit))
+                .map(SequencedMessage::message);
+    }
+
+    @Override
+    public Flux<SequencedMessage> readMessages(String channelName, String password, long fromSequence, long limit) throws Exception {
+        var messages = channelStorage.getChannelOrThrow(channelName, password).messages();
+        var from = fromSequence < 0 ? Math.max(messages.nextSequence() + fromSequence, 0) : fromSequence;
+        return Flux.fromIterable(messages.read(from, limit));
+    }
+
+    @Override
+    public Mono<Long> countMessages(String channelName, String password) throws Exception {
+        return Mono.just(channelStorage.getChannelOrThrow(channelName, password).messages().size());
     }
 
     @Override
@@ -88,22 +167,51 @@ public class ChannelsServiceImpl implements ReactiveChannelsService {
 
     @Override
     public Mono<Message> sendMessage(String channelName, String password, Message payload) throws Exception {
-        var channel = channelStorage.getChannelOrThrow(channelName, password);
+        return sendMessage(channelStorage.getChannelOrThrow(channelName, password), payload);
+    }
+
+    private void registerFile(ChannelWithMessages channel, FileMessage fileMessage) {
+        channel.filesIDs().add(fileMessage.id());
+        thumbnailService.submit(fileMessage);
+    }
+
+    private Mono<Message> sendMessage(ChannelWithMessages channel, Message payload) {
         return Mono.fromSupplier(() -> {
             if (payload instanceof FileMessage fileMessage)
-                channel.filesIDs().add(fileMessage.id());
+                registerFile(channel, fileMessage);
 
-            channel.messageSink().tryEmitNext(payload);
-            channel.messages().add(payload);
+            // keeps live delivery in log order; emit never blocks
+            synchronized (channel) {
+                channel.fanout().emit(channel.messages().append(payload));
+            }
 
             return payload;
         });
     }
 
     @Override
-    public Mono<Message> sendFileMessage(String channelName, String password, String filename, InputStream inputStream) throws Exception {
-        var savedFile = fileStorageService.write(filename, inputStream);
-        return sendMessage(channelName, password, new FileMessage(savedFile));
+    public Flux<SequencedMessage> sendMessages(String channelName, String password, Flux<? extends Message> payloads) throws Exception {
+        var channel = channelStorage.getChannelOrThrow(channelName, password);
+        return payloads
+                .bufferTimeout(SEND_BATCH_SIZE, SEND_BATCH_LINGER, true)
+                .concatMapIterable(batch -> {
+                    for (Message payload : batch)
+                        if (payload instanceof FileMessage fileMessage)
+                            registerFile(channel, fileMessage);
+
+                    synchronized (channel) {
+                        var appended = channel.messages().appendAll(batch);
+                        channel.fanout().emitAll(appended);
+                        return appended;
+                    }
+                });
+    }
+
+    @Override
+    public Mono<Message> sendFileMessage(String channelName, String password, String filename, Flux<DataBuffer> content) throws Exception {
+        var channel = channelStorage.getChannelOrThrow(channelName, password);
+        return storageQuotas.write(channelName, Mono.fromSupplier(() -> fileStorageService.usedBytes(channel.filesIDs())),
+                filename, content, savedFile -> sendMessage(channel, new FileMessage(savedFile)));
     }
 
     @Override
@@ -121,6 +229,17 @@ public class ChannelsServiceImpl implements ReactiveChannelsService {
         });
     }
 
+    @Override
+    public Flux<String> listFiles(String channelName, String password) throws Exception {
+        return Flux.fromIterable(channelStorage.getChannelOrThrow(channelName, password).filesIDs());
+    }
+
+    @Override
+    public Flux<String> listAllFiles() {
+        return Flux.fromIterable(channelStorage.channels())
+                .concatMapIterable(ChannelWithMessages::filesIDs);
+    }
+
     @Override
     public boolean channelExists(String channelName) {
         return channelStorage.channelExists(channelName);
@@ -130,4 +249,17 @@ public class ChannelsServiceImpl implements ReactiveChannelsService {
     public boolean channelCheckCredentials(String channelName, String password) {
         return channelStorage.channelCheckCredentials(channelName, password);
     }
+
+    @Override
+    public String statsName() {
+        return "channels";
+    }
+
+    @Override
+    public Object stats() {
+        return Map.of(
+                "storage", channelStorage.stats(),
+                "fanout", fanoutCounters.stats()
+        );
+    }
 }
@@ -0,0 +1,136 @@
+package com.mixfa.tempmessages.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Hashed timing wheel that tracks when keys expire.
+ * <p>
+ * Timeouts are hashed into buckets by their deadline tick, and a single ticker drains one bucket
+ * per tick, handing every key that is due to the handler as one batch. Timeouts that are not due
+ * yet (a later revolution, or extended by {@link #touch}) are put back into their bucket, so
+ * extending a deadline is a plain write. Cancelled timeouts are dropped lazily when their bucket
+ * comes around; only the key is kept until then.
+ */
+@Slf4j
+public final class ExpiryWheel<K> {
+    private final Map<K, Timeout<K>> timeouts = new ConcurrentHashMap<>();
+    private final Queue<Timeout<K>>[] buckets;
+    private final long tickMillis;
+    private final Consumer<List<K>> expirationHandler;
+    private final LongSupplier clock;
+
+    private long lastTick;
+
+    private static final class Timeout<K> {
+        private final K key;
+        private volatile long deadline;
+
+        private Timeout(K key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+
+    public ExpiryWheel(Duration tick, int wheelSize, Consumer<List<K>> expirationHandler) {
+        this(tick, wheelSize, expirationHandler, System::currentTimeMillis);
+
+        var ticker = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A wheel that only moves when {@link #advance} is called, reading the time from {@code clock}.
+     */
+    @SuppressWarnings("unchecked")
+    ExpiryWheel(Duration tick, int wheelSize, Consumer<List<K>> expirationHandler, LongSupplier clock) {
+        this.tickMillis = Math.max(tick.toMillis(), 1);
+        this.expirationHandler = expirationHandler;
+        this.clock = clock;
+        this.buckets = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            buckets[i] = new ConcurrentLinkedQueue<>();
+
+        this.lastTick = currentTick();
+    }
+
+    private long currentTick() {
+        return clock.getAsLong() / tickMillis;
+    }
+
+    private Queue<Timeout<K>> bucketOf(long deadline) {
+        return buckets[(int) ((deadline / tickMillis) % buckets.length)];
+    }
+
+    public void schedule(K key, Duration timeToLive) {
+        var timeout = new Timeout<>(key, clock.getAsLong() + timeToLive.toMillis());
+        timeouts.put(key, timeout);
+        bucketOf(timeout.deadline).add(timeout);
+    }
+
+    /**
+     * Moves the deadline of {@code key} to at least {@code timeToLive} from now.
+     */
+    public void touch(K key, Duration timeToLive) {
+        var timeout = timeouts.get(key);
+        if (timeout == null)
+            return;
+
+        var deadline = clock.getAsLong() + timeToLive.toMillis();
+        if (deadline > timeout.deadline)
+            timeout.deadline = deadline;
+    }
+
+    public boolean cancel(K key) {
+        return timeouts.remove(key) != null;
+    }
+
+    public int pending() {
+        return timeouts.size();
+    }
+
+    void advance() {
+        try {
+            var now = currentTick();
+            var due = new ArrayList<K>();
+            // catch up on ticks missed while the ticker was delayed, at most one full revolution
+            for (long tick = Math.max(lastTick + 1, now - buckets.length + 1); tick <= now; tick++)
+                drain(buckets[(int) (tick % buckets.length)], now, due);
+            lastTick = now;
+
+            if (!due.isEmpty())
+                expirationHandler.accept(due);
+        } catch (Exception ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    private void drain(Queue<Timeout<K>> bucket, long now, List<K> due) {
+        var notDue = new ArrayList<Timeout<K>>();
+
+        Timeout<K> timeout;
+        while ((timeout = bucket.poll()) != null) {
+            if (timeouts.get(timeout.key) != timeout)
+                continue;
+
+            if (timeout.deadline / tickMillis > now)
+                notDue.add(timeout);
+            else if (timeouts.remove(timeout.key, timeout))
+                due.add(timeout.key);
+        }
+
+        for (var pending : notDue)
+            bucketOf(pending.deadline).add(pending);
+    }
+}
@@ -0,0 +1,208 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.StoredFile;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File id to {@link StoredFile} map, optionally journaled to {@code <root>/index/files.log}.
+ * <p>
+ * The journal is append-only, one {@code +} line per stored file and one {@code -} line per
+ * deleted one, so a restart replays a single file instead of listing every id directory.
+ * It is rewritten with only the live entries whenever the index is loaded, and once it holds more
+ * dead records than live ones.
+ */
+@Slf4j
+final class FileIndex {
+    static final String INDEX_DIRECTORY = "index";
+    private static final String JOURNAL_FILE = "files.log";
+    private static final String NONE = "-";
+    // small journals are not worth rewriting
+    private static final long MIN_COMPACT_RECORDS = 1024;
+
+    private final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final Path root;
+    private final Path journal;
+    // guarded by this
+    private long journalRecords;
+
+    /**
+     * @param persist whether changes are journaled; a transient index is rebuilt by the owner
+     */
+    FileIndex(Path root, boolean persist) {
+        this.root = root;
+        this.journal = persist ? root.resolve(INDEX_DIRECTORY).resolve(JOURNAL_FILE) : null;
+    }
+
+    StoredFile get(String id) {
+        return files.get(id);
+    }
+
+    Collection<StoredFile> files() {
+        return files.values();
+    }
+
+    int size() {
+        return files.size();
+    }
+
+    /**
+     * Sum of {@link StoredFile#storedSize()} over the indexed files.
+     */
+    long storedBytes() {
+        return storedBytes.get();
+    }
+
+    void put(StoredFile file) {
+        track(files.put(file.id(), file), file);
+        journal(encode(file));
+    }
+
+    StoredFile remove(String id) {
+        var removed = files.remove(id);
+        if (removed != null) {
+            track(removed, null);
+            journal("-\t" + id + "\n");
+        }
+        return removed;
+    }
+
+    private void track(StoredFile previous, StoredFile current) {
+        storedBytes.addAndGet((current == null ? 0 : current.storedSize()) - (previous == null ? 0 : previous.storedSize()));
+    }
+
+    /**
+     * Replays the journal, if there is one.
+     *
+     * @return {@code false} when nothing was persisted and the caller has to rebuild the index
+     */
+    boolean load() throws IOException {
+        if (journal == null || !Files.exists(journal))
+            return false;
+
+        try (var lines = Files.lines(journal, StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                replay(line);
+                journalRecords++;
+            });
+        }
+        return true;
+    }
+
+    private void replay(String line) {
+        var fields = line.split("\t");
+        try {
+            switch (fields[0]) {
+                case "+" -> {
+                    var file = decode(fields);
+                    track(files.put(file.id(), file), file);
+                }
+                case "-" -> track(files.remove(fields[1]), null);
+                default -> log.warn("Skipping corrupted file index record");
+            }
+        } catch (RuntimeException ex) {
+            // most likely the tail of a record cut short by a crash
+            log.warn("Skipping corrupted file index record");
+        }
+    }
+
+    /**
+     * Rewrites the journal with the live entries only.
+     */
+    synchronized void compact() throws IOException {
+        if (journal == null)
+            return;
+
+        Files.createDirectories(journal.getParent());
+        var temp = journal.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (var writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (StoredFile file : files.values())
+                writer.write(encode(file));
+        }
+        Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalRecords = files.size();
+    }
+
+    private synchronized void journal(String record) {
+        if (journal == null)
+            return;
+
+        var bytes = record.getBytes(StandardCharsets.UTF_8);
+        try {
+            try {
+                Files.write(journal, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (NoSuchFileException ex) {
+                Files.createDirectories(journal.getParent());
+                Files.write(journal, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException ex) {
+            log.error(ex.getLocalizedMessage());
+            return;
+        }
+
+        journalRecords++;
+        if (journalRecords >= MIN_COMPACT_RECORDS && journalRecords - files.size() > files.size()) {
+            try {
+                compact();
+            } catch (IOException ex) {
+                log.error(ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static String orNone(String value) {
+        return value == null ? NONE : value;
+    }
+
+    private static String orNull(String value) {
+        return NONE.equals(value) ? null : value;
+    }
+
+    private String encode(StoredFile file) {
+        return String.join("\t",
+                "+",
+                file.id(),
+                Long.toString(file.size()),
+                Long.toString(file.createdAt().toEpochMilli()),
+                orNone(file.checksum()),
+                orNone(file.contentType()),
+                // filenames are user input and may hold tabs or line breaks
+                URLEncoder.encode(file.filename(), StandardCharsets.UTF_8),
+                orNone(file.encoding()),
+                Long.toString(file.storedSize())
+        ) + "\n";
+    }
+
+    private StoredFile decode(String[] fields) {
+        var id = fields[1];
+        var size = Long.parseLong(fields[2]);
+        // records written before compression existed stop at the filename
+        var encoding = fields.length > 7 ? orNull(fields[7]) : null;
+        var directory = encoding == null ? root.resolve(id) : root.resolve(id).resolve(encoding);
+        return new StoredFile(
+                id,
+                directory.resolve(URLDecoder.decode(fields[6], StandardCharsets.UTF_8)),
+                size,
+                orNull(fields[5]),
+                orNull(fields[4]),
+                Instant.ofEpochMilli(Long.parseLong(fields[3])),
+                encoding,
+                fields.length > 8 ? Long.parseLong(fields[8]) : size
+        );
+    }
+}
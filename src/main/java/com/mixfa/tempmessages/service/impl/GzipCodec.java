@@ -0,0 +1,164 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression of stored files: which uploads are worth compressing, and a streaming
+ * encoder for reactive writes.
+ */
+final class GzipCodec {
+    static final String ENCODING = "gzip";
+    static final int HEAD_SIZE = 12;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "gz", "tgz", "zip", "jar", "7z", "rar", "xz", "bz2", "zst", "br", "lz4",
+            "png", "jpg", "jpeg", "gif", "webp", "avif", "heic",
+            "mp3", "mp4", "m4a", "aac", "ogg", "opus", "webm", "mkv", "mov", "avi",
+            "pdf", "docx", "xlsx", "pptx", "odt", "epub", "apk"
+    );
+
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+            {0x1f, (byte) 0x8b},                                // gzip
+            {0x50, 0x4b, 0x03, 0x04},                           // zip and everything built on it
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c}, // 7z
+            {0x52, 0x61, 0x72, 0x21},                           // rar
+            {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00},        // xz
+            {0x42, 0x5a, 0x68},                                 // bzip2
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},             // zstd
+            {(byte) 0x89, 0x50, 0x4e, 0x47},                    // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},            // jpeg
+            {0x47, 0x49, 0x46, 0x38},                           // gif
+            {0x25, 0x50, 0x44, 0x46},                           // pdf
+            {0x4f, 0x67, 0x67, 0x53},                           // ogg
+            {0x49, 0x44, 0x33},                                 // mp3
+    };
+
+    private GzipCodec() {
+    }
+
+    static boolean compressibleName(Path path) {
+        var filename = String.valueOf(path.getFileName());
+        var dot = filename.lastIndexOf('.');
+        return dot < 0 || !COMPRESSED_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Recognizes already compressed formats by their first bytes.
+     */
+    static boolean compressedContent(byte[] head, int length) {
+        for (byte[] signature : COMPRESSED_SIGNATURES)
+            if (length >= signature.length && Arrays.equals(head, 0, signature.length, signature, 0, signature.length))
+                return true;
+
+        // RIFF containers (webp, avi, wav) and ISO media (mp4, mov, heic)
+        return length >= 12 && (startsWith(head, 0, "RIFF") || startsWith(head, 4, "ftyp"));
+    }
+
+    private static boolean startsWith(byte[] head, int offset, String ascii) {
+        var bytes = ascii.getBytes(StandardCharsets.US_ASCII);
+        return Arrays.equals(head, offset, offset + bytes.length, bytes, 0, bytes.length);
+    }
+
+    static byte[] head(DataBuffer buffer) {
+        var head = new byte[Math.min(HEAD_SIZE, buffer.readableByteCount())];
+        for (int i = 0; i < head.length; i++)
+            head[i] = buffer.getByte(buffer.readPosition() + i);
+        return head;
+    }
+
+    /**
+     * The uncompressed size recorded in the gzip trailer, exact for files below 4 GB.
+     */
+    static long decodedSize(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var trailer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(trailer, channel.size() - Integer.BYTES);
+            return Integer.toUnsignedLong(trailer.getInt(0));
+        }
+    }
+
+    static Flux<DataBuffer> encode(Flux<DataBuffer> content) {
+        return Flux.using(
+                Encoder::new,
+                encoder -> content.map(encoder::encode).concatWith(Mono.fromSupplier(encoder::finish)),
+                Encoder::end
+        );
+    }
+
+    private static final class Encoder {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] chunk = new byte[8192];
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean started;
+
+        private DataBuffer encode(DataBuffer input) {
+            start();
+            try (var chunks = input.readableByteBuffers()) {
+                while (chunks.hasNext()) {
+                    var bytes = chunks.next();
+                    crc.update(bytes.duplicate());
+                    deflater.setInput(bytes);
+                    while (!deflater.needsInput())
+                        drain();
+                }
+            } finally {
+                DataBufferUtils.release(input);
+            }
+            return take();
+        }
+
+        private DataBuffer finish() {
+            start();
+            deflater.finish();
+            while (!deflater.finished())
+                drain();
+
+            var trailer = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) crc.getValue())
+                    .putInt((int) deflater.getBytesRead());
+            out.writeBytes(trailer.array());
+            return take();
+        }
+
+        private void start() {
+            if (!started)
+                out.writeBytes(HEADER);
+            started = true;
+        }
+
+        private void drain() {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+
+        private DataBuffer take() {
+            var bytes = out.toByteArray();
+            out.reset();
+            return DefaultDataBufferFactory.sharedInstance.wrap(bytes);
+        }
+
+        private void end() {
+            deflater.end();
+        }
+    }
+}
@@ -2,32 +2,208 @@ package com.mixfa.tempmessages.service.impl;
 
 import com.mixfa.tempmessages.model.FileData;
 import com.mixfa.tempmessages.model.FileResponse;
+import com.mixfa.tempmessages.model.StoredFile;
 import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.FileUpload;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HexFormat;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Stores every file under {@code <root>/<id>/<filename>}.
+ * <p>
+ * With {@code filestorage.deduplicate} enabled, uploads are content addressed: the stream is
+ * hashed (SHA-256) while it is written to a temporary file, which is then moved into
+ * {@code <root>/blobs/<h0h1>/<h2h3>/<hash>} unless that blob already exists. {@code <root>/<id>/<filename>}
+ * becomes a hard link to the blob, so the blob link count is its reference count and the blob
+ * is reclaimed once the last id pointing at it is deleted. Each id also records its blob hash
+ * under {@code <root>/blobs/refs/<id>}.
+ * <p>
+ * Reads and deletes are resolved through a {@link FileIndex} instead of listing the id directory.
+ * The index is rebuilt from {@code <root>} on startup, or replayed from its journal when
+ * {@code filestorage.index.persist} is set.
+ * <p>
+ * With {@code filestorage.compression.enabled}, uploads are gzipped on the way to disk unless their
+ * name or first bytes show an already compressed format; those land in {@code <root>/<id>/gzip/<filename>}
+ * and are served as is to clients that accept gzip.
+ * <p>
+ * Files derived from a stored file, such as its thumbnail, are kept in {@code <root>/<id>/variants/}.
+ */
+@Slf4j
 @Service
 public class LocalFileStorageService implements FileStorageService {
+    public static final String BLOBS_DIRECTORY = "blobs";
+    private static final String REFS_DIRECTORY = "refs";
+    private static final String TEMP_DIRECTORY = "tmp";
+    private static final String VARIANTS_DIRECTORY = "variants";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int LOCK_STRIPES = 64;
+    private static final Set<String> RESERVED_DIRECTORIES = Set.of(
+            BLOBS_DIRECTORY, FileIndex.INDEX_DIRECTORY, MessageLogFactory.JOURNAL_DIRECTORY,
+            UploadSessionServiceImpl.UPLOADS_DIRECTORY
+    );
+
     private final String rootPath;
+    private final boolean deduplicate;
+    private final boolean compress;
+    private final Path blobsPath;
+    private final long maxFileSize;
+    private final Object[] blobLocks = new Object[LOCK_STRIPES];
+    private final FileIndex index;
 
-    public LocalFileStorageService(@Value("${filestorage.root}") String rootPath) {
+    public LocalFileStorageService(@Value("${filestorage.root}") String rootPath,
+                                   @Value("${filestorage.deduplicate:false}") boolean deduplicate,
+                                   @Value("${filestorage.max-file-size:25MB}") DataSize maxFileSize,
+                                   @Value("${filestorage.index.persist:false}") boolean persistIndex,
+                                   @Value("${filestorage.compression.enabled:false}") boolean compress) {
         this.rootPath = rootPath;
+        this.compress = compress;
+        this.maxFileSize = maxFileSize.toBytes();
+        this.blobsPath = Path.of(rootPath, BLOBS_DIRECTORY);
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            blobLocks[i] = new Object();
+
+        var linkCountSupported = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+        if (deduplicate && !linkCountSupported)
+            log.warn("File deduplication needs hard link counts, which this file system does not expose; storing plain copies");
+        this.deduplicate = deduplicate && linkCountSupported;
+
+        this.index = new FileIndex(Path.of(rootPath), persistIndex);
+        try {
+            var startedAt = System.nanoTime();
+            if (!index.load())
+                rebuildIndex();
+            index.compact();
+            log.info("Indexed {} stored files in {} ms", index.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        } catch (IOException ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * One pass over the id directories, for a root without a persisted index.
+     */
+    private void rebuildIndex() throws IOException {
+        var root = Path.of(rootPath);
+        if (!Files.isDirectory(root))
+            return;
+
+        try (var directories = Files.list(root)) {
+            for (var directory : directories.toList()) {
+                var id = directory.getFileName().toString();
+                if (RESERVED_DIRECTORIES.contains(id) || !Files.isDirectory(directory))
+                    continue;
+                var file = scan(id);
+                if (file != null)
+                    index.put(file);
+            }
+        }
     }
 
-    private static String makeFileID() {
+    /**
+     * Finds a file the index does not know about, e.g. one stored before it was rebuilt.
+     */
+    private StoredFile scan(String id) throws IOException {
+        var directory = Path.of(rootPath, id);
+        if (!Files.isDirectory(directory))
+            return null;
+
+        String encoding = null;
+        var filePath = firstFile(directory);
+        var encodedDirectory = directory.resolve(GzipCodec.ENCODING);
+        if (filePath == null && Files.isDirectory(encodedDirectory)) {
+            filePath = firstFile(encodedDirectory);
+            encoding = GzipCodec.ENCODING;
+        }
+        if (filePath == null)
+            return null;
+
+        var refPath = refPath(id);
+        var checksum = Files.exists(refPath) ? Files.readString(refPath) : null;
+        var attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        var size = encoding == null ? attributes.size() : GzipCodec.decodedSize(filePath);
+        return new StoredFile(id, filePath, size, contentType(filePath), checksum,
+                attributes.lastModifiedTime().toInstant(), encoding, attributes.size());
+    }
+
+    private static Path firstFile(Path directory) throws IOException {
+        try (var fileStream = Files.list(directory)) {
+            return fileStream.filter(Files::isRegularFile).findFirst().orElse(null);
+        }
+    }
+
+    private static String contentType(Path path) {
+        return MediaTypeFactory.getMediaType(Objects.requireNonNullElse(path.getFileName(), path).toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+    }
+
+    /**
+     * Ids are shared with the other storage tiers, so a file keeps its id wherever it lives.
+     */
+    static String makeFileID() {
         return HexFormat.of().toHexDigits(UUID.randomUUID().getLeastSignificantBits());
     }
 
+    private Object blobLock(String hash) {
+        return blobLocks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Compressed and plain copies of the same content are different blobs.
+     */
+    private static String blobKey(String hash, String encoding) {
+        return encoding == null ? hash : hash + ".gz";
+    }
+
+    private Path blobPath(String hash) {
+        return blobsPath.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Path refPath(String id) {
+        return blobsPath.resolve(REFS_DIRECTORY).resolve(id);
+    }
+
     @Override
     public FileData write(MultipartFile file) throws Exception {
         return write(
@@ -38,48 +214,491 @@ public class LocalFileStorageService implements FileStorageService {
 
     @Override
     public FileData write(String filename, InputStream inputStream) throws Exception {
-        var id = makeFileID();
+        return writeAs(makeFileID(), filename, inputStream);
+    }
+
+    /**
+     * Stores a file under an id handed out elsewhere, e.g. by a tier the file is moved out of.
+     */
+    public FileData writeAs(String id, String filename, InputStream inputStream) throws Exception {
+        var upload = openUpload(id, filename);
+        try {
+            inputStream.transferTo(upload.outputStream());
+            return upload.complete();
+        } catch (Exception ex) {
+            upload.abort();
+            throw ex;
+        }
+    }
 
+    @Override
+    public FileData store(String filename, Path source) throws Exception {
+        var upload = prepareUpload(makeFileID(), filename, Long.MAX_VALUE);
+        try {
+            byte[] head;
+            try (var inputStream = Files.newInputStream(source)) {
+                head = inputStream.readNBytes(GzipCodec.HEAD_SIZE);
+            }
+
+            if (upload.startEncoding(head)) {
+                upload.openStream();
+                try (var inputStream = Files.newInputStream(source)) {
+                    inputStream.transferTo(upload.outputStream());
+                }
+                Files.delete(source);
+            } else {
+                upload.adopt(source);
+            }
+            return upload.complete();
+        } catch (Exception ex) {
+            upload.abort();
+            throw ex;
+        }
+    }
+
+    @Override
+    public FileUpload openUpload(String filename) throws Exception {
+        return openUpload(makeFileID(), filename);
+    }
+
+    private LocalFileUpload openUpload(String id, String filename) throws Exception {
+        var upload = prepareUpload(id, filename, maxFileSize);
+        try {
+            upload.openStream();
+        } catch (IOException ex) {
+            upload.abort();
+            throw ex;
+        }
+        return upload;
+    }
+
+    @Override
+    public Mono<FileData> write(String filename, Flux<DataBuffer> content) {
+        return Mono.fromCallable(() -> prepareUpload(makeFileID(), filename, maxFileSize))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(upload -> {
+                    var accepted = content.<DataBuffer>handle((buffer, sink) -> {
+                        if (upload.accept(buffer)) {
+                            sink.next(buffer);
+                        } else {
+                            DataBufferUtils.release(buffer);
+                            sink.error(new IOException("File is too large"));
+                        }
+                    });
+                    var encoded = accepted.switchOnFirst((first, buffers) ->
+                            first.hasValue() && upload.startEncoding(GzipCodec.head(first.get()))
+                                    ? GzipCodec.encode(buffers)
+                                    : buffers
+                    );
+                    return DataBufferUtils.write(encoded, upload.target,
+                                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                            .then(Mono.fromCallable(upload::complete).subscribeOn(Schedulers.boundedElastic()))
+                            .doOnError(_ -> upload.abort())
+                            .doOnCancel(upload::abort);
+                });
+    }
+
+    private LocalFileUpload prepareUpload(String id, String filename, long limit) throws Exception {
         var path = Path.of(rootPath, id, filename.replace("..", ""));
 
         Files.createDirectories(Path.of(rootPath, id));
 
-        try (var fos = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-            inputStream.transferTo(fos);
-        }
+        var digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        if (!deduplicate)
+            return new LocalFileUpload(id, path, path, digest, limit);
 
-        return new FileData(id, path.toAbsolutePath().toString());
+        var tempDirectory = Files.createDirectories(blobsPath.resolve(TEMP_DIRECTORY));
+        return new LocalFileUpload(id, path, Files.createTempFile(tempDirectory, id, null), digest, limit);
     }
 
-    private Path findOrThrow(String id) throws Exception {
-        Objects.requireNonNull(id);
-        var dirPath = Path.of(rootPath, id);
+    /**
+     * Writes to the final path, or to a temp file that becomes a blob when deduplicating,
+     * hashing, counting and possibly compressing the content in the same pass. The bytes come
+     * either through {@link #outputStream()} or, for reactive writes, through {@link #accept(DataBuffer)}.
+     */
+    private final class LocalFileUpload implements FileUpload {
+        private final String id;
+        private final Path path;
+        private final Path target;
+        private final MessageDigest digest;
+        private final long limit;
+        private final long startedAt = System.nanoTime();
+        private OutputStream outputStream;
+        private long size;
+        private String encoding;
+
+        private LocalFileUpload(String id, Path path, Path target, MessageDigest digest, long limit) {
+            this.id = id;
+            this.path = path;
+            this.target = target;
+            this.digest = digest;
+            this.limit = limit;
+        }
+
+        private void openStream() throws IOException {
+            var file = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.outputStream = new FilterOutputStream(file) {
+                // chosen by the first bytes written
+                private OutputStream sink;
 
-        Path filePath;
-        try (var fileStream = Files.list(dirPath)) {
-            filePath = fileStream.filter(p -> !Files.isDirectory(p))
-                    .findFirst()
-                    .orElseThrow(() -> new Exception("File not found"));
+                private OutputStream sink(byte[] b, int off, int len) throws IOException {
+                    if (sink == null)
+                        sink = startEncoding(Arrays.copyOfRange(b, off, off + Math.min(len, GzipCodec.HEAD_SIZE)))
+                                ? new GZIPOutputStream(file, BUFFER_SIZE)
+                                : file;
+                    return sink;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    reserveOrThrow(len);
+                    digest.update(b, off, len);
+                    sink(b, off, len).write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // finishes the gzip trailer before the file is closed
+                    if (sink != null && sink != file)
+                        sink.close();
+                    else
+                        super.close();
+                }
+            };
+        }
+
+        /**
+         * Decides once, on the first bytes, whether the content gets compressed.
+         */
+        private boolean startEncoding(byte[] head) {
+            if (compress && GzipCodec.compressibleName(path) && !GzipCodec.compressedContent(head, head.length))
+                encoding = GzipCodec.ENCODING;
+            return encoding != null;
+        }
+
+        /**
+         * Where the bytes end up: compressed content lives in a subdirectory named after its coding.
+         */
+        private Path storedPath() {
+            return encoding == null ? path : path.getParent().resolve(encoding).resolve(path.getFileName());
+        }
+
+        /**
+         * Hashes a file written by someone else and moves it in place of the target.
+         */
+        private void adopt(Path source) throws IOException {
+            try (var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (channel.read(buffer) >= 0) {
+                    reserveOrThrow(buffer.flip().remaining());
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Refuses to grow past the limit, {@code filestorage.max-file-size} unless stated otherwise.
+         */
+        private boolean reserve(long length) {
+            if (size + length > limit)
+                return false;
+            size += length;
+            return true;
+        }
+
+        private void reserveOrThrow(long length) throws IOException {
+            if (!reserve(length))
+                throw new IOException("File is too large");
+        }
+
+        private boolean accept(DataBuffer buffer) {
+            if (!reserve(buffer.readableByteCount()))
+                return false;
+            try (var chunks = buffer.readableByteBuffers()) {
+                while (chunks.hasNext())
+                    digest.update(chunks.next());
+            }
+            return true;
         }
 
-        return filePath;
+        @Override
+        public OutputStream outputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public FileData complete() throws Exception {
+            if (outputStream != null)
+                outputStream.close();
+            var checksum = HexFormat.of().formatHex(digest.digest());
+            var stored = storedPath();
+            if (encoding != null)
+                Files.createDirectories(stored.getParent());
+
+            if (deduplicate) {
+                try {
+                    storeBlob(id, stored, target, checksum, encoding);
+                } finally {
+                    Files.deleteIfExists(target);
+                }
+            } else if (!stored.equals(target)) {
+                Files.move(target, stored);
+            }
+
+            var storedSize = encoding == null ? size : Files.size(stored);
+            index.put(new StoredFile(id, stored, size, contentType(path), checksum,
+                    Files.getLastModifiedTime(stored).toInstant(), encoding, storedSize));
+
+            var nanos = Math.max(System.nanoTime() - startedAt, 1);
+            log.debug("Stored file {}: {} bytes ({} on disk) in {} ms ({} KB/s)", id, size, storedSize,
+                    TimeUnit.NANOSECONDS.toMillis(nanos), size * 1_000_000_000L / nanos / 1024);
+
+            return new FileData(id, stored.toAbsolutePath().toString(), stored.getFileName().toString());
+        }
+
+        @Override
+        public void abort() {
+            try {
+                if (outputStream != null)
+                    outputStream.close();
+                Files.deleteIfExists(target);
+                Files.deleteIfExists(path);
+                if (encoding != null) {
+                    Files.deleteIfExists(storedPath());
+                    Files.deleteIfExists(storedPath().getParent());
+                }
+                Files.deleteIfExists(path.getParent());
+            } catch (IOException ex) {
+                log.error(ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void storeBlob(String id, Path path, Path tempFile, String hash, String encoding) throws IOException {
+        var blob = blobPath(blobKey(hash, encoding));
+        synchronized (blobLock(hash)) {
+            // if the same content is already stored, the temp file is just dropped by the caller
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                Files.move(tempFile, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.createLink(path, blob);
+        }
+
+        Files.createDirectories(refPath(id).getParent());
+        Files.writeString(refPath(id), hash);
+    }
+
+    private StoredFile findOrThrow(String id) throws Exception {
+        Objects.requireNonNull(id);
+        var file = index.get(id);
+        if (file != null)
+            return file;
+
+        // the root may be shared with other instances, which have their own index
+        file = scan(id);
+        if (file == null)
+            throw new Exception("File not found");
+        index.put(file);
+        return file;
     }
 
     @Override
     public FileResponse read(String id) throws Exception {
-        var filePath = findOrThrow(id);
+        var file = findOrThrow(id);
+        var filePath = file.path();
 
         StreamingResponseBody streamingResponse = outputStream -> {
-            try (InputStream inputStream = Files.newInputStream(filePath)) {
+            try (InputStream inputStream = openDecoded(file)) {
                 inputStream.transferTo(outputStream);
             }
         };
 
-        return new FileResponse(Objects.requireNonNullElse(filePath.getFileName(), "file").toString(), streamingResponse);
+        return new FileResponse(
+                file.filename(),
+                streamingResponse,
+                file.storedSize(),
+                entityTag(file),
+                file.createdAt(),
+                filePath,
+                file.contentType(),
+                file.encoding()
+        );
+    }
+
+    private static InputStream openDecoded(StoredFile file) throws IOException {
+        var inputStream = Files.newInputStream(file.path());
+        return file.encoding() == null ? inputStream : new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+
+    @Override
+    public Flux<DataBuffer> read(String id, HttpRange range) {
+        return Mono.fromCallable(() -> findOrThrow(id))
+                .flatMapMany(file -> {
+                    var start = range == null ? 0 : range.getRangeStart(file.size());
+                    var end = range == null ? file.size() : range.getRangeEnd(file.size()) + 1;
+                    if (file.encoding() != null) {
+                        // compressed content can only be decoded from the start
+                        var decoded = FileStorageService.content(() -> openDecoded(file));
+                        return DataBufferUtils.takeUntilByteCount(DataBufferUtils.skipUntilByteCount(decoded, start), end - start);
+                    }
+
+                    var content = DataBufferUtils.readAsynchronousFileChannel(
+                            () -> AsynchronousFileChannel.open(file.path(), StandardOpenOption.READ),
+                            start, DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE
+                    );
+                    return DataBufferUtils.takeUntilByteCount(content, end - start);
+                });
+    }
+
+    /**
+     * The content hash when it is known, otherwise size and modification time,
+     * which change with every rewrite of a stored file. The stored bytes are tagged,
+     * so compressed files get a tag of their own.
+     */
+    private static String entityTag(StoredFile file) {
+        var suffix = file.encoding() == null ? "" : "-" + file.encoding();
+        if (file.checksum() != null)
+            return '"' + file.checksum() + suffix + '"';
+
+        var modified = TimeUnit.MILLISECONDS.toMicros(file.createdAt().toEpochMilli());
+        return '"' + Long.toHexString(file.storedSize()) + '-' + Long.toHexString(modified) + suffix + '"';
     }
 
     @Override
     public void delete(String id) throws Exception {
-        Files.delete(findOrThrow(id));
+        var file = findOrThrow(id);
+        index.remove(id);
+        Files.deleteIfExists(file.path());
+        if (file.encoding() != null)
+            Files.deleteIfExists(file.path().getParent());
+        FileSystemUtils.deleteRecursively(Path.of(rootPath, id, VARIANTS_DIRECTORY));
+        Files.deleteIfExists(Path.of(rootPath, id));
+        if (!deduplicate)
+            return;
+
+        var refPath = refPath(id);
+        if (!Files.exists(refPath))
+            return;
+
+        var hash = Files.readString(refPath);
+        Files.delete(refPath);
+        releaseBlob(hash, file.encoding());
+    }
+
+    private Path variantPath(String id, String variant) {
+        return Path.of(rootPath, id, VARIANTS_DIRECTORY, variant.replace("..", ""));
+    }
+
+    @Override
+    public void writeVariant(String id, String variant, byte[] content) throws Exception {
+        findOrThrow(id);
+        var path = variantPath(id, variant);
+        Files.createDirectories(path.getParent());
+        // readers never see a half-written variant
+        var temp = Files.createTempFile(path.getParent(), variant, null);
+        try {
+            Files.write(temp, content);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public FileResponse readVariant(String id, String variant) throws Exception {
+        var path = variantPath(id, variant);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+
+        var modified = attributes.lastModifiedTime().toInstant();
+        return new FileResponse(
+                variant,
+                outputStream -> Files.copy(path, outputStream),
+                attributes.size(),
+                '"' + Long.toHexString(attributes.size()) + '-' + Long.toHexString(modified.toEpochMilli()) + '"',
+                modified,
+                path,
+                contentType(path),
+                null
+        );
+    }
+
+    public int fileCount() {
+        return index.size();
+    }
+
+    @Override
+    public long usedBytes() {
+        return index.storedBytes();
+    }
+
+    @Override
+    public long usedBytes(Collection<String> ids) {
+        long bytes = 0;
+        for (String id : ids) {
+            var file = index.get(id);
+            if (file != null)
+                bytes += file.storedSize();
+        }
+        return bytes;
+    }
+
+    @Override
+    public List<String> ids() throws Exception {
+        var root = Path.of(rootPath);
+        if (!Files.isDirectory(root))
+            return List.of();
+
+        try (var directories = Files.list(root)) {
+            return directories
+                    .filter(Files::isDirectory)
+                    .map(directory -> directory.getFileName().toString())
+                    .filter(id -> !RESERVED_DIRECTORIES.contains(id))
+                    .toList();
+        }
+    }
+
+    @Override
+    public long sweep(String id, Instant cutoff) throws Exception {
+        var directory = Path.of(rootPath, id);
+        if (RESERVED_DIRECTORIES.contains(id) || !Files.isDirectory(directory))
+            return -1;
+
+        long bytes = 0;
+        try (var paths = Files.walk(directory)) {
+            for (var path : paths.toList()) {
+                var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                // a write in progress keeps touching its file
+                if (attributes.lastModifiedTime().toInstant().isAfter(cutoff))
+                    return -1;
+                if (attributes.isRegularFile())
+                    bytes += attributes.size();
+            }
+        }
+
+        if (index.get(id) != null || scan(id) != null)
+            delete(id);
+        FileSystemUtils.deleteRecursively(directory);
+        return bytes;
+    }
+
+    private void releaseBlob(String hash, String encoding) throws IOException {
+        var blob = blobPath(blobKey(hash, encoding));
+        synchronized (blobLock(hash)) {
+            if (Files.exists(blob) && (int) Files.getAttribute(blob, "unix:nlink") <= 1)
+                Files.delete(blob);
+        }
     }
 }
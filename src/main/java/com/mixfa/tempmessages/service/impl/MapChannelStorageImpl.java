@@ -1,52 +1,222 @@
 package com.mixfa.tempmessages.service.impl;
 
 import com.mixfa.tempmessages.model.Channel;
+import com.mixfa.tempmessages.model.ChannelStorageStats;
 import com.mixfa.tempmessages.service.ChannelStorage;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
+/**
+ * In-memory channel storage.
+ * <p>
+ * Besides expiring channels after their time to live, the storage can keep the summed
+ * {@link Channel#footprint()} of all channels under {@code maxBytes}: a periodic sweep (and any
+ * create that pushes the estimate over the budget) evicts the least recently accessed channels
+ * until usage drops to {@value #EVICTION_TARGET_PERCENT}% of the budget. Channels are kept in
+ * access order as they are used, in {@value #ACCESS_STRIPES} stripes by name so that lookups rarely
+ * wait on each other; eviction merges the stripes from their eldest by last access time. Evicted
+ * channels go through the same destroy handlers as expired ones.
+ */
 @Slf4j
-@RequiredArgsConstructor
 public class MapChannelStorageImpl<ChannelType extends Channel> implements ChannelStorage<ChannelType> {
+    private static final Duration EXPIRY_TICK = Duration.ofSeconds(1);
+    private static final int EXPIRY_WHEEL_SIZE = 3600;
+    private static final Duration BUDGET_CHECK_PERIOD = Duration.ofSeconds(1);
+    private static final int EVICTION_TARGET_PERCENT = 90;
+    private static final int ACCESS_STRIPES = 16;
+
     private final Map<String, ChannelType> channelsStorage = new ConcurrentHashMap<>();
+    // each guarded by itself, least recently accessed first
+    private final List<Map<String, ChannelType>> accessOrder = new ArrayList<>(ACCESS_STRIPES);
     private final BiFunction<String, String, ChannelType> creator;
     private final PasswordEncoder passwordEncoder;
+    private final VerifiedCredentialsCache credentialsCache;
     private final Duration timeToLive;
+    private final boolean slidingTimeToLive;
+    private final long maxBytes;
 
     private final List<Consumer<ChannelType>> destroyHandlers = new CopyOnWriteArrayList<>();
-    private final ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ExpiryWheel<String> expiryWheel;
+    private final ScheduledExecutorService budgetKeeper = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final AtomicBoolean budgetCheckRequested = new AtomicBoolean();
+
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public MapChannelStorageImpl(BiFunction<String, String, ChannelType> creator, PasswordEncoder passwordEncoder,
+                                 VerifiedCredentialsCache credentialsCache, Settings settings) {
+        this.creator = creator;
+        this.passwordEncoder = passwordEncoder;
+        this.credentialsCache = credentialsCache;
+        this.timeToLive = settings.timeToLive();
+        this.slidingTimeToLive = settings.slidingTimeToLive();
+        this.maxBytes = settings.maxBytes();
+        this.expiryWheel = new ExpiryWheel<>(EXPIRY_TICK, EXPIRY_WHEEL_SIZE, this::onChannelsExpired);
+        for (int i = 0; i < ACCESS_STRIPES; i++)
+            accessOrder.add(new LinkedHashMap<>(16, 0.75f, true));
+
+        var period = BUDGET_CHECK_PERIOD.toMillis();
+        budgetKeeper.scheduleWithFixedDelay(this::enforceBudget, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, ChannelType> accessStripe(String name) {
+        return accessOrder.get(Math.floorMod(name.hashCode(), ACCESS_STRIPES));
+    }
+
+    private void onChannelsExpired(List<String> names) {
+        for (String name : names) {
+            var channel = channelsStorage.get(name);
+            if (channel != null && destroyChannel(name, channel))
+                expirations.increment();
+        }
+    }
+
+    private boolean destroyChannel(String name, ChannelType channel) {
+        if (!channelsStorage.remove(name, channel))
+            return false;
+        var stripe = accessStripe(name);
+        synchronized (stripe) {
+            stripe.remove(name, channel);
+        }
+        usedBytes.addAndGet(-channel.footprint());
+
+        expiryWheel.cancel(name);
+        credentialsCache.invalidate(name);
+        for (Consumer<ChannelType> destroyHandler : destroyHandlers) {
+            try {
+                destroyHandler.accept(channel);
+            } catch (Exception ex) {
+                log.error(ex.getLocalizedMessage());
+                ex.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    private void enforceBudget() {
+        budgetCheckRequested.set(false);
+        try {
+            long total = 0;
+            for (ChannelType channel : channelsStorage.values())
+                total += channel.footprint();
+
+            if (maxBytes > 0 && total > maxBytes) {
+                var excess = total - maxBytes / 100 * EVICTION_TARGET_PERCENT;
+                var victims = new ArrayList<ChannelType>();
+                long selected = 0;
+                for (var iterator = eldestFirst(); iterator.hasNext() && selected < excess; ) {
+                    var channel = iterator.next();
+                    victims.add(channel);
+                    selected += channel.footprint();
+                }
+
+                for (ChannelType channel : victims) {
+                    var footprint = channel.footprint();
+                    if (destroyChannel(channel.name(), channel)) {
+                        total -= footprint;
+                        evictions.increment();
+                    }
+                }
+            }
+            usedBytes.set(total);
+        } catch (Exception ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    private record Cursor<T>(T head, long lastAccessTime, Iterator<T> rest) {
+    }
+
+    /**
+     * All channels, least recently accessed first: every stripe already is in that order, so their
+     * snapshots only need merging.
+     */
+    private Iterator<ChannelType> eldestFirst() {
+        var heads = new PriorityQueue<Cursor<ChannelType>>(ACCESS_STRIPES, Comparator.comparingLong(Cursor::lastAccessTime));
+        for (var stripe : accessOrder) {
+            List<ChannelType> snapshot;
+            synchronized (stripe) {
+                snapshot = List.copyOf(stripe.values());
+            }
+            var iterator = snapshot.iterator();
+            if (iterator.hasNext()) {
+                var channel = iterator.next();
+                heads.add(new Cursor<>(channel, channel.lastAccessTime(), iterator));
+            }
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public ChannelType next() {
+                var cursor = heads.remove();
+                if (cursor.rest().hasNext()) {
+                    var channel = cursor.rest().next();
+                    heads.add(new Cursor<>(channel, channel.lastAccessTime(), cursor.rest()));
+                }
+                return cursor.head();
+            }
+        };
+    }
 
     private ChannelType createChannelAnyway(String name, String password) {
         var channel = creator.apply(name, passwordEncoder.encode(password));
         channelsStorage.put(name, channel);
+        var stripe = accessStripe(name);
+        synchronized (stripe) {
+            stripe.put(name, channel);
+        }
+        expiryWheel.schedule(name, timeToLive);
 
-        scheduledExecutor.schedule(() -> {
-            for (Consumer<ChannelType> destroyHandler : destroyHandlers) {
-                try {
-                    destroyHandler.accept(channel);
-                } catch (Exception ex) {
-                    log.error(ex.getLocalizedMessage());
-                    ex.printStackTrace();
-                }
+        var used = usedBytes.addAndGet(channel.footprint());
+        if (maxBytes > 0 && used > maxBytes && budgetCheckRequested.compareAndSet(false, true))
+            budgetKeeper.execute(this::enforceBudget);
 
-                channelsStorage.remove(name);
-            }
-        }, timeToLive.toSeconds(), TimeUnit.SECONDS);
+        return channel;
+    }
 
+    private ChannelType onAccess(String name, ChannelType channel) {
+        channel.touch();
+        var stripe = accessStripe(name);
+        synchronized (stripe) {
+            stripe.get(name);
+        }
+        if (slidingTimeToLive)
+            expiryWheel.touch(name, timeToLive);
         return channel;
     }
 
     @Override
     public void deleteChannel(String name) {
-        channelsStorage.remove(name);
+        var channel = channelsStorage.get(name);
+        if (channel != null)
+            destroyChannel(name, channel);
     }
 
     @Override
@@ -63,10 +233,10 @@ public class MapChannelStorageImpl<ChannelType extends Channel> implements Chann
         if (channel == null) {
             return createChannelAnyway(name, password);
         }
-        if (!passwordEncoder.matches(password, channel.passwordHash()))
+        if (!credentialsCache.matches(name, password, channel.passwordHash()))
             throw new Exception("Password not matches");
 
-        return channel;
+        return onAccess(name, channel);
     }
 
     @Override
@@ -74,10 +244,10 @@ public class MapChannelStorageImpl<ChannelType extends Channel> implements Chann
         var channel = channelsStorage.get(name);
         if (channel == null)
             throw new Exception("Channel not found");
-        if (!passwordEncoder.matches(password, channel.passwordHash()))
+        if (!credentialsCache.matches(name, password, channel.passwordHash()))
             throw new Exception("Password not matches");
 
-        return channel;
+        return onAccess(name, channel);
     }
 
     @Override
@@ -85,17 +255,39 @@ public class MapChannelStorageImpl<ChannelType extends Channel> implements Chann
         return channelsStorage.containsKey(channelName);
     }
 
+    @Override
+    public Collection<ChannelType> channels() {
+        return Collections.unmodifiableCollection(channelsStorage.values());
+    }
+
     @Override
     public boolean channelCheckCredentials(String channelName, String password) {
         var channel = channelsStorage.get(channelName);
         if (channel == null)
             return false;
 
-        return passwordEncoder.matches(password, channel.passwordHash());
+        return credentialsCache.matches(channelName, password, channel.passwordHash());
     }
 
     @Override
     public void subscribeToChannelDestruction(Consumer<ChannelType> handler) {
         this.destroyHandlers.add(handler);
     }
+
+    @Override
+    public int pendingExpirations() {
+        return expiryWheel.pending();
+    }
+
+    @Override
+    public ChannelStorageStats stats() {
+        return new ChannelStorageStats(
+                channelsStorage.size(),
+                usedBytes.get(),
+                maxBytes,
+                evictions.sum(),
+                expirations.sum(),
+                expiryWheel.pending()
+        );
+    }
 }
@@ -0,0 +1,290 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@link MessageLog} journaled to memory-mapped segment files, keeping the history off the heap.
+ * <p>
+ * Messages are appended as {@code [int length][payload]} records to the current segment; each
+ * segment keeps a small sequence to offset index, so lookups are a binary search over segments
+ * and one absolute read. The count budget is kept per message, like {@link RingMessageLog} does;
+ * segment files are only dropped from the head once all their messages are evicted or the byte
+ * budget is exceeded, so the disk can overshoot by at most one segment. Appends are serialized,
+ * reads never take a lock. Once {@link #delete()}d the log takes no more appends.
+ */
+@Slf4j
+public final class MappedMessageLog implements MessageLog {
+    private static final byte TEXT = 0;
+    private static final byte FILE = 1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxCount;
+    private final long maxBytes;
+
+    private volatile List<Segment> segments = List.of();
+    private volatile long head;
+    private volatile long tail;
+    private boolean deleted;
+    private volatile long bytes;
+
+    private static final class Segment {
+        private final long firstSequence;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+
+        private volatile int[] offsets = new int[64];
+        private volatile int count;
+        private int position;
+
+        private Segment(long firstSequence, Path path, MappedByteBuffer buffer) {
+            this.firstSequence = firstSequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        private boolean fits(int recordSize) {
+            return buffer.capacity() - position >= recordSize;
+        }
+
+        private void write(byte[] payload) {
+            if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count] = position;
+
+            buffer.putInt(position, payload.length);
+            buffer.put(position + Integer.BYTES, payload);
+            position += Integer.BYTES + payload.length;
+            count = count + 1;
+        }
+
+        private byte[] read(int index) {
+            var offset = offsets[index];
+            var payload = new byte[buffer.getInt(offset)];
+            buffer.get(offset + Integer.BYTES, payload);
+            return payload;
+        }
+    }
+
+    public MappedMessageLog(Path directory, int segmentSize, long maxCount, long maxBytes) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(Message message) {
+        var buffer = switch (message) {
+            case TextMessage(String text) -> {
+                var textBytes = text.getBytes(StandardCharsets.UTF_8);
+                yield ByteBuffer.allocate(1 + Integer.BYTES + textBytes.length)
+                        .put(TEXT).putInt(textBytes.length).put(textBytes);
+            }
+            // records without the trailing filename derive it from the path when they are read
+            case FileMessage(String path, String id, String filename) -> {
+                var pathBytes = encodeString(path);
+                var idBytes = encodeString(id);
+                var filenameBytes = encodeString(filename);
+                yield ByteBuffer.allocate(1 + pathBytes.remaining() + idBytes.remaining() + filenameBytes.remaining())
+                        .put(FILE).put(pathBytes).put(idBytes).put(filenameBytes);
+            }
+        };
+        return buffer.array();
+    }
+
+    /**
+     * {@code [int length][utf-8 bytes]}, a length of {@code -1} is {@code null}.
+     */
+    private static ByteBuffer encodeString(String string) {
+        if (string == null)
+            return ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip();
+        var bytes = string.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes).flip();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length < 0)
+            return null;
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Message decode(byte[] payload) {
+        var buffer = ByteBuffer.wrap(payload);
+        return switch (buffer.get()) {
+            case TEXT -> new TextMessage(readString(buffer));
+            case FILE -> {
+                var path = readString(buffer);
+                var id = readString(buffer);
+                yield buffer.hasRemaining() ? new FileMessage(path, id, readString(buffer)) : new FileMessage(path, id);
+            }
+            default -> throw new IllegalStateException("Corrupted journal record");
+        };
+    }
+
+    private Segment openSegment(long firstSequence, int minSize) throws IOException {
+        var path = directory.resolve(firstSequence + ".segment");
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minSize));
+            return new Segment(firstSequence, path, buffer);
+        }
+    }
+
+    @Override
+    public synchronized SequencedMessage append(Message message) {
+        if (deleted)
+            throw new IllegalStateException("Message log is deleted");
+
+        var payload = encode(message);
+        var recordSize = Integer.BYTES + payload.length;
+
+        var current = segments.isEmpty() ? null : segments.getLast();
+        if (current == null || !current.fits(recordSize)) {
+            try {
+                current = openSegment(tail, recordSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            var rolled = new ArrayList<>(segments);
+            rolled.add(current);
+            segments = List.copyOf(rolled);
+            evictSegments();
+        }
+
+        var entry = new SequencedMessage(tail, message);
+        current.write(payload);
+        bytes += recordSize;
+        tail = tail + 1;
+        if (tail - head > maxCount)
+            head = tail - maxCount;
+
+        return entry;
+    }
+
+    private void evictSegments() {
+        var retained = segments;
+        while (retained.size() > 1 && (retained.get(1).firstSequence <= head || bytes > maxBytes)) {
+            var oldest = retained.getFirst();
+            retained = retained.subList(1, retained.size());
+            bytes -= oldest.position;
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException ex) {
+                log.error(ex.getLocalizedMessage());
+            }
+        }
+        segments = List.copyOf(retained);
+        head = Math.max(head, retained.getFirst().firstSequence);
+    }
+
+    private static Segment find(List<Segment> segments, long sequence) {
+        int low = 0, high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).firstSequence <= sequence)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high < 0 ? null : segments.get(high);
+    }
+
+    @Override
+    public SequencedMessage get(long sequence) {
+        if (sequence < head)
+            return null;
+
+        var segment = find(segments, sequence);
+        if (segment == null)
+            return null;
+
+        var index = sequence - segment.firstSequence;
+        if (index >= segment.count)
+            return null;
+
+        return new SequencedMessage(sequence, decode(segment.read((int) index)));
+    }
+
+    @Override
+    public List<SequencedMessage> read(long fromSequence, long limit) {
+        var snapshot = segments;
+        var result = new ArrayList<SequencedMessage>();
+        if (snapshot.isEmpty())
+            return result;
+
+        var sequence = Math.max(fromSequence, Math.max(head, snapshot.getFirst().firstSequence));
+        for (var segment : snapshot) {
+            var count = segment.count;
+            for (; result.size() < limit && sequence - segment.firstSequence < count; sequence++)
+                result.add(new SequencedMessage(sequence, decode(segment.read((int) (sequence - segment.firstSequence)))));
+        }
+        return result;
+    }
+
+    @Override
+    public long firstSequence() {
+        return head;
+    }
+
+    @Override
+    public long nextSequence() {
+        return tail;
+    }
+
+    @Override
+    public long size() {
+        return tail - firstSequence();
+    }
+
+    @Override
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public long heapBytes() {
+        long indexBytes = 0;
+        for (var segment : segments)
+            indexBytes += (long) Integer.BYTES * segment.offsets.length;
+        return indexBytes;
+    }
+
+    @Override
+    public synchronized void delete() {
+        deleted = true;
+        segments = List.of();
+        head = tail;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : files.toList())
+                Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        } catch (IOException ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+}
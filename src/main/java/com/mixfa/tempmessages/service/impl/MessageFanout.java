@@ -0,0 +1,180 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FanoutStats;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers values to any number of live subscribers, each through its own bounded queue.
+ * <p>
+ * {@link #emit} only enqueues and never blocks; every subscriber drains its own queue as it
+ * requests more, so a slow reader can only lose its own messages. What happens when a queue
+ * is full is decided by the {@link OverflowPolicy}.
+ */
+public final class MessageFanout<T> {
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        DISCONNECT
+    }
+
+    /**
+     * Counters shared by all fanouts of a service.
+     */
+    public static final class Counters {
+        private final LongAdder emitted = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder disconnected = new LongAdder();
+        private final LongAdder emitFailures = new LongAdder();
+
+        public FanoutStats stats() {
+            return new FanoutStats(emitted.sum(), dropped.sum(), disconnected.sum(), emitFailures.sum());
+        }
+    }
+
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+    private final Counters counters;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean completed;
+
+    private final class Subscription {
+        private final FluxSink<T> sink;
+        private final Queue<T> queue = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done;
+        private volatile boolean overflowed;
+
+        private Subscription(FluxSink<T> sink) {
+            this.sink = sink;
+        }
+
+        private void offer(T value) {
+            if (queue.offer(value))
+                return;
+
+            switch (overflowPolicy) {
+                case DROP_NEWEST -> counters.dropped.increment();
+                case DROP_OLDEST -> {
+                    while (!queue.offer(value)) {
+                        if (queue.poll() != null)
+                            counters.dropped.increment();
+                    }
+                }
+                case DISCONNECT -> {
+                    if (!overflowed) {
+                        overflowed = true;
+                        subscriptions.remove(this);
+                        counters.disconnected.increment();
+                    }
+                }
+            }
+        }
+
+        private void complete() {
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+
+            do {
+                if (overflowed) {
+                    queue.clear();
+                    sink.error(new Exception("Subscriber is too slow"));
+                    return;
+                }
+
+                while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                    var value = queue.poll();
+                    if (value == null)
+                        break;
+                    sink.next(value);
+                }
+
+                if (done && queue.isEmpty()) {
+                    sink.complete();
+                    return;
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+
+    public MessageFanout(int bufferSize, OverflowPolicy overflowPolicy, Counters counters) {
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.counters = counters;
+    }
+
+    public Flux<T> flux() {
+        return Flux.create(sink -> {
+            var subscription = new Subscription(sink);
+            sink.onRequest(_ -> subscription.drain());
+            sink.onDispose(() -> subscriptions.remove(subscription));
+
+            subscriptions.add(subscription);
+            if (completed) {
+                subscriptions.remove(subscription);
+                subscription.complete();
+            }
+        });
+    }
+
+    /**
+     * @return {@code false} if the fanout is already completed
+     */
+    public boolean emit(T value) {
+        if (completed) {
+            counters.emitFailures.increment();
+            return false;
+        }
+
+        counters.emitted.increment();
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(value);
+            subscription.drain();
+        }
+        return true;
+    }
+
+    /**
+     * Emits a batch, waking every subscriber once instead of once per value.
+     */
+    public boolean emitAll(List<T> values) {
+        if (completed) {
+            counters.emitFailures.add(values.size());
+            return false;
+        }
+
+        counters.emitted.add(values.size());
+        for (Subscription subscription : subscriptions) {
+            for (T value : values)
+                subscription.offer(value);
+            subscription.drain();
+        }
+        return true;
+    }
+
+    public void complete() {
+        completed = true;
+        for (Subscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.complete();
+        }
+    }
+
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+}
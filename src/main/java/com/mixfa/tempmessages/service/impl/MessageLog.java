@@ -0,0 +1,68 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded, append-only history of a channel.
+ * <p>
+ * Every appended message gets a monotonic sequence number. Implementations evict the oldest
+ * messages to stay within their budget, so {@link #firstSequence()} only ever moves forward.
+ */
+public interface MessageLog {
+    SequencedMessage append(Message message);
+
+    /**
+     * Appends all messages as one contiguous run of sequences, provided {@link #append} synchronizes on the log.
+     */
+    default List<SequencedMessage> appendAll(List<? extends Message> messages) {
+        var appended = new ArrayList<SequencedMessage>(messages.size());
+        synchronized (this) {
+            for (Message message : messages)
+                appended.add(append(message));
+        }
+        return appended;
+    }
+
+    /**
+     * Returns the message with the given sequence, or {@code null} if it is evicted or not written yet.
+     */
+    SequencedMessage get(long sequence);
+
+    /**
+     * Returns up to {@code limit} retained messages starting at {@code fromSequence},
+     * skipping anything evicted in the meantime.
+     */
+    List<SequencedMessage> read(long fromSequence, long limit);
+
+    /**
+     * Returns the window {@code [offset, offset + limit)} counted from the oldest retained message.
+     */
+    default List<SequencedMessage> window(long offset, long limit) {
+        return read(firstSequence() + Math.max(offset, 0), limit);
+    }
+
+    long firstSequence();
+
+    long nextSequence();
+
+    long size();
+
+    long bytes();
+
+    /**
+     * Part of {@link #bytes()} that lives on the heap.
+     */
+    default long heapBytes() {
+        return bytes();
+    }
+
+    /**
+     * Releases whatever the log holds outside the heap.
+     */
+    default void delete() {
+    }
+}
@@ -0,0 +1,59 @@
+package com.mixfa.tempmessages.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Creates the history log of every new standalone channel: an in-memory ring buffer by default,
+ * or a memory-mapped journal under {@code filestorage.root} when {@code channel.journal.enabled} is set.
+ * <p>
+ * Standalone channels do not outlive the process, so journals left by a previous run are deleted on startup.
+ */
+@Slf4j
+@Component
+public class MessageLogFactory {
+    public static final String JOURNAL_DIRECTORY = "journal";
+
+    private final int maxMessages;
+    private final DataSize maxMessagesSize;
+    private final boolean journalEnabled;
+    private final Path journalRoot;
+    private final DataSize journalSegmentSize;
+    private final DataSize journalMaxSize;
+
+    public MessageLogFactory(@Value("${channel.messages.max-count:10000}") int maxMessages,
+                             @Value("${channel.messages.max-size:8MB}") DataSize maxMessagesSize,
+                             @Value("${channel.journal.enabled:false}") boolean journalEnabled,
+                             @Value("${filestorage.root}") String fileStorageRoot,
+                             @Value("${channel.journal.segment-size:4MB}") DataSize journalSegmentSize,
+                             @Value("${channel.journal.max-size:64MB}") DataSize journalMaxSize) {
+        this.maxMessages = maxMessages;
+        this.maxMessagesSize = maxMessagesSize;
+        this.journalEnabled = journalEnabled;
+        this.journalRoot = Path.of(fileStorageRoot, JOURNAL_DIRECTORY);
+        this.journalSegmentSize = journalSegmentSize;
+        this.journalMaxSize = journalMaxSize;
+
+        try {
+            FileSystemUtils.deleteRecursively(journalRoot);
+        } catch (IOException ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    public MessageLog newLog() {
+        if (!journalEnabled)
+            return new RingMessageLog(maxMessages, maxMessagesSize.toBytes());
+
+        var directory = journalRoot.resolve(HexFormat.of().toHexDigits(UUID.randomUUID().getLeastSignificantBits()));
+        return new MappedMessageLog(directory, (int) journalSegmentSize.toBytes(), maxMessages, journalMaxSize.toBytes());
+    }
+}
@@ -0,0 +1,400 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.mixfa.tempmessages.TempMessagesApplication;
+import com.mixfa.tempmessages.misc.Utils;
+import com.mixfa.tempmessages.model.Channel;
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.FileResponse;
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Channels stored in Redis, so that several instances can serve the same channels.
+ * <p>
+ * Every channel is a hash holding the password hash, a stream with the message history and
+ * a counter that hands out message sequences from {@code 0}, as standalone channels do. Sequences
+ * double as stream ids ({@code 0-<seq + 1>}, since {@code 0-0} is not a valid one), which lets offset
+ * windows be resolved with a single XRANGE. A channel is created together with its expiry by a script. Appends go through a script that
+ * also publishes the message to the channel topic, so live listeners see messages in sequence
+ * order. All keys expire together with the channel.
+ */
+@Slf4j
+@Service
+@Profile("redis")
+public class RedisChannelsService implements ReactiveChannelsService {
+    private static final String PASSWORD_HASH = "passwordHash";
+    private static final String MESSAGE = "message";
+
+    private static final int SEND_BATCH_SIZE = 256;
+    private static final Duration SEND_BATCH_LINGER = Duration.ofMillis(10);
+    private static final long FILES_SCAN_COUNT = 1000;
+
+    private static final RedisScript<Boolean> CREATE_SCRIPT = RedisScript.of("""
+            if redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2]) == 0 then
+                return 0
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            return 1
+            """, Boolean.class);
+
+    // the counter holds the next sequence
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> APPEND_SCRIPT = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return {-1}
+            end
+            local ttl = redis.call('PTTL', KEYS[1])
+            local sequences = {}
+            for i = 3, #ARGV do
+                local seq = redis.call('INCR', KEYS[3]) - 1
+                redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[1], '0-' .. (seq + 1), 'message', ARGV[i])
+                redis.call('PUBLISH', ARGV[2], '{"sequence":' .. seq .. ',"message":' .. ARGV[i] .. '}')
+                sequences[#sequences + 1] = seq
+            end
+            if ttl > 0 then
+                redis.call('PEXPIRE', KEYS[2], ttl)
+                redis.call('PEXPIRE', KEYS[3], ttl)
+            end
+            return sequences
+            """, List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ReactiveRedisMessageListenerContainer listenerContainer;
+    private final PasswordEncoder passwordEncoder;
+    private final VerifiedCredentialsCache credentialsCache;
+    private final FileStorageService fileStorageService;
+    private final StorageQuotas storageQuotas;
+    private final ThumbnailService thumbnailService;
+    private final int maxMessages;
+
+    public RedisChannelsService(ReactiveStringRedisTemplate redisTemplate,
+                                ReactiveRedisMessageListenerContainer listenerContainer,
+                                PasswordEncoder passwordEncoder,
+                                VerifiedCredentialsCache credentialsCache,
+                                FileStorageService fileStorageService,
+                                StorageQuotas storageQuotas,
+                                ThumbnailService thumbnailService,
+                                @Value("${channel.messages.max-count:10000}") int maxMessages) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.passwordEncoder = passwordEncoder;
+        this.credentialsCache = credentialsCache;
+        this.fileStorageService = fileStorageService;
+        this.storageQuotas = storageQuotas;
+        this.thumbnailService = thumbnailService;
+        this.maxMessages = maxMessages;
+    }
+
+    private static String channelKey(String channelName) {
+        return "channel:" + channelName;
+    }
+
+    private static String messagesKey(String channelName) {
+        return channelKey(channelName) + ":messages";
+    }
+
+    private static String sequenceKey(String channelName) {
+        return channelKey(channelName) + ":sequence";
+    }
+
+    private static String filesKey(String channelName) {
+        return channelKey(channelName) + ":files";
+    }
+
+    private static String encode(Message message) {
+        try {
+            return TempMessagesApplication.getObjectMapper().writerFor(Message.class).writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> T decode(String json, Class<T> type) {
+        try {
+            return TempMessagesApplication.getObjectMapper().readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String streamId(long sequence) {
+        return "0-" + (sequence + 1);
+    }
+
+    private static long sequenceOf(MapRecord<String, Object, Object> record) {
+        return record.getId().getSequence() - 1;
+    }
+
+    private Mono<Channel> checkPassword(String channelName, String password, String passwordHash) {
+        return Mono.fromCallable(() -> credentialsCache.matches(channelName, password, passwordHash))
+                .subscribeOn(Schedulers.parallel())
+                .flatMap(matches -> matches
+                        ? Mono.just(new Channel(channelName, passwordHash))
+                        : Mono.error(new Exception("Password not matches")));
+    }
+
+    private Mono<Channel> findChannel(String channelName, String password) {
+        return redisTemplate.<String, String>opsForHash().get(channelKey(channelName), PASSWORD_HASH)
+                .flatMap(passwordHash -> checkPassword(channelName, password, passwordHash));
+    }
+
+    private Mono<Channel> getChannelOrThrow(String channelName, String password) {
+        return findChannel(channelName, password)
+                .switchIfEmpty(Mono.error(() -> new Exception("Channel not found")));
+    }
+
+    private Mono<Boolean> tryCreateChannel(String channelName, String passwordHash) {
+        return redisTemplate.execute(
+                        CREATE_SCRIPT,
+                        List.of(channelKey(channelName)),
+                        List.of(PASSWORD_HASH, passwordHash, String.valueOf(Utils.TIME_TO_LIVE.toMillis()))
+                )
+                .next()
+                .defaultIfEmpty(false);
+    }
+
+    private Mono<Channel> getChannelOrCreate(String channelName, String password) {
+        return findChannel(channelName, password)
+                .switchIfEmpty(Mono.defer(() -> {
+                    var passwordHash = passwordEncoder.encode(password);
+                    return tryCreateChannel(channelName, passwordHash)
+                            .flatMap(created -> created
+                                    ? Mono.just(new Channel(channelName, passwordHash))
+                                    : getChannelOrThrow(channelName, password));
+                }));
+    }
+
+    private Mono<Duration> timeToLive(String channelName) {
+        return redisTemplate.getExpire(channelKey(channelName))
+                .filter(ttl -> !ttl.isNegative() && !ttl.isZero())
+                .defaultIfEmpty(Utils.TIME_TO_LIVE);
+    }
+
+    @Override
+    public Flux<Message> listenMessages(String channelName, String password) throws Exception {
+        return getChannelOrCreate(channelName, password)
+                .zipWith(timeToLive(channelName))
+                .flatMapMany(channelAndTtl -> listenerContainer
+                        .receive(channelAndTtl.getT1().topic())
+                        .take(channelAndTtl.getT2()))
+                .map(message -> decode(message.getMessage(), SequencedMessage.class).message());
+    }
+
+    private Flux<SequencedMessage> readHistory(String channelName, long fromSequence, long toSequence) {
+        var lower = Range.Bound.inclusive(streamId(fromSequence));
+        var range = toSequence == Long.MAX_VALUE
+                ? Range.rightUnbounded(lower)
+                : Range.of(lower, Range.Bound.exclusive(streamId(toSequence)));
+
+        return redisTemplate.<Object, Object>opsForStream().range(messagesKey(channelName), range)
+                .map(record -> new SequencedMessage(
+                        sequenceOf(record),
+                        decode(record.getValue().get(MESSAGE).toString(), Message.class)
+                ));
+    }
+
+    private Mono<Long> resolveSequence(String channelName, long fromSequence) {
+        return redisTemplate.opsForValue().get(sequenceKey(channelName))
+                .map(Long::parseLong)
+                .defaultIfEmpty(0L)
+                .map(nextSequence -> fromSequence < 0
+                        ? Math.max(nextSequence + fromSequence, 0)
+                        : Math.min(fromSequence, nextSequence));
+    }
+
+    @Override
+    public Flux<SequencedMessage> listenMessages(String channelName, String password, long fromSequence) throws Exception {
+        return getChannelOrCreate(channelName, password)
+                .zipWith(timeToLive(channelName))
+                .flatMapMany(channelAndTtl -> ReplayThenLive.of(
+                        listenerContainer.receiveLater(channelAndTtl.getT1().topic())
+                                .map(messages -> messages
+                                        .take(channelAndTtl.getT2())
+                                        .map(message -> decode(message.getMessage(), SequencedMessage.class))),
+                        resolveSequence(channelName, fromSequence),
+                        (from, to) -> readHistory(channelName, from, to)
+                ));
+    }
+
+    @Override
+    public Flux<Message> listMessages(String channelName, String password, long offset, long limit) throws Exception {
+        var key = messagesKey(channelName);
+        var streamOps = redisTemplate.<Object, Object>opsForStream();
+
+        return getChannelOrCreate(channelName, password)
+                .flatMap(_ -> streamOps.range(key, Range.unbounded(), Limit.limit().count(1)).next())
+                .flatMapMany(first -> {
+                    var from = sequenceOf(first) + Math.max(offset, 0);
+                    return streamOps.range(
+                            key,
+                            Range.rightUnbounded(Range.Bound.inclusive(streamId(from))),
+                            Limit.limit().count((int) Math.min(limit, Integer.MAX_VALUE))
+                    );
+                })
+                .map(record -> decode(record.getValue().get(MESSAGE).toString(), Message.class));
+    }
+
+    @Override
+    public Flux<SequencedMessage> readMessages(String channelName, String password, long fromSequence, long limit) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMap(channel -> resolveSequence(channel.name(), fromSequence))
+                .flatMapMany(from -> redisTemplate.<Object, Object>opsForStream().range(
+                        messagesKey(channelName),
+                        Range.rightUnbounded(Range.Bound.inclusive(streamId(from))),
+                        Limit.limit().count((int) Math.min(limit, Integer.MAX_VALUE))
+                ))
+                .map(record -> new SequencedMessage(
+                        sequenceOf(record),
+                        decode(record.getValue().get(MESSAGE).toString(), Message.class)
+                ));
+    }
+
+    @Override
+    public Mono<Long> countMessages(String channelName, String password) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMap(channel -> redisTemplate.opsForStream().size(messagesKey(channel.name())));
+    }
+
+    @Override
+    public Mono<Channel> createChannel(String channelName, String password) throws Exception {
+        return Mono.fromCallable(() -> passwordEncoder.encode(password))
+                .subscribeOn(Schedulers.parallel())
+                .flatMap(passwordHash -> tryCreateChannel(channelName, passwordHash)
+                        .flatMap(created -> created
+                                ? Mono.just(new Channel(channelName, passwordHash))
+                                : Mono.error(new Exception("Channel with this name already exists"))));
+    }
+
+    private Flux<SequencedMessage> append(Channel channel, List<? extends Message> payloads) {
+        var args = new ArrayList<String>(payloads.size() + 2);
+        args.add(String.valueOf(maxMessages));
+        args.add(channel.topic().getTopic());
+        for (Message payload : payloads)
+            args.add(encode(payload));
+
+        return redisTemplate.execute(
+                        APPEND_SCRIPT,
+                        List.of(channelKey(channel.name()), messagesKey(channel.name()), sequenceKey(channel.name())),
+                        args
+                )
+                .next()
+                .flatMapMany(sequences -> {
+                    // the script answers {-1} when the channel is gone, which is one element for a single message
+                    if (sequences.isEmpty() || ((Number) sequences.getFirst()).longValue() < 0)
+                        return Flux.error(new Exception("Channel not found"));
+                    if (sequences.size() != payloads.size())
+                        return Flux.error(new Exception("Unexpected append result"));
+
+                    return Flux.range(0, payloads.size())
+                            .map(i -> new SequencedMessage(((Number) sequences.get(i)).longValue(), payloads.get(i)));
+                });
+    }
+
+    private Mono<Void> registerFiles(Channel channel, List<? extends Message> payloads) {
+        var fileMessages = payloads.stream()
+                .filter(FileMessage.class::isInstance)
+                .map(FileMessage.class::cast)
+                .toList();
+        if (fileMessages.isEmpty())
+            return Mono.empty();
+
+        var filesKey = filesKey(channel.name());
+        return redisTemplate.opsForSet().add(filesKey, fileMessages.stream().map(FileMessage::id).toArray(String[]::new))
+                .then(timeToLive(channel.name()))
+                .flatMap(ttl -> redisTemplate.expire(filesKey, ttl))
+                .doOnSuccess(_ -> fileMessages.forEach(thumbnailService::submit))
+                .then();
+    }
+
+    @Override
+    public Mono<Message> sendMessage(String channelName, String password, Message payload) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMap(channel -> send(channel, payload));
+    }
+
+    private Mono<Message> send(Channel channel, Message payload) {
+        var payloads = List.of(payload);
+        return registerFiles(channel, payloads)
+                .thenMany(append(channel, payloads))
+                .then(Mono.just(payload));
+    }
+
+    @Override
+    public Flux<SequencedMessage> sendMessages(String channelName, String password, Flux<? extends Message> payloads) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMapMany(channel -> payloads
+                        .bufferTimeout(SEND_BATCH_SIZE, SEND_BATCH_LINGER, true)
+                        .concatMap(batch -> registerFiles(channel, batch).thenMany(append(channel, batch))));
+    }
+
+    @Override
+    public Mono<Message> sendFileMessage(String channelName, String password, String filename, Flux<DataBuffer> content) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMap(channel -> storageQuotas.write(channel.name(),
+                        redisTemplate.opsForSet().members(filesKey(channel.name()))
+                                .collectList()
+                                .map(fileStorageService::usedBytes),
+                        filename, content, savedFile -> send(channel, new FileMessage(savedFile))));
+    }
+
+    @Override
+    public Mono<FileResponse> getFile(String channelName, String password, String id) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMap(channel -> redisTemplate.opsForSet().isMember(filesKey(channel.name()), id))
+                .flatMap(isMember -> isMember
+                        ? Mono.fromCallable(() -> fileStorageService.read(id)).subscribeOn(Schedulers.boundedElastic())
+                        : Mono.error(new Exception("File not found")));
+    }
+
+    @Override
+    public Flux<String> listFiles(String channelName, String password) throws Exception {
+        return getChannelOrThrow(channelName, password)
+                .flatMapMany(channel -> redisTemplate.opsForSet().members(filesKey(channel.name())));
+    }
+
+    @Override
+    public Flux<String> listAllFiles() {
+        return redisTemplate.scan(ScanOptions.scanOptions().match(filesKey("*")).count(FILES_SCAN_COUNT).build())
+                // a channel named like "<name>:files" has a hash under the same pattern
+                .filterWhen(key -> redisTemplate.type(key).map(DataType.SET::equals))
+                .concatMap(key -> redisTemplate.opsForSet().members(key));
+    }
+
+    @Override
+    public boolean channelExists(String channelName) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(channelKey(channelName)).block());
+    }
+
+    @Override
+    public boolean channelCheckCredentials(String channelName, String password) {
+        return findChannel(channelName, password)
+                .hasElement()
+                .onErrorReturn(false)
+                .blockOptional()
+                .orElse(false);
+    }
+}
@@ -0,0 +1,55 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Joins a channel history with its live messages without gaps or duplicates.
+ * <p>
+ * The live feed is connected (and buffers) before the history is read. Anything appended before
+ * that point is therefore in the history, anything after it arrives live, and the overlap is
+ * dropped by sequence. A hole in the live feed (a slow subscriber losing messages to its overflow
+ * policy) is filled from the history again.
+ */
+final class ReplayThenLive {
+    /**
+     * Reads {@code [fromSequence, toSequence)} from the channel history, skipping evicted messages.
+     */
+    @FunctionalInterface
+    interface History {
+        Flux<SequencedMessage> read(long fromSequence, long toSequence);
+    }
+
+    private ReplayThenLive() {
+    }
+
+    /**
+     * @param live         emits the live feed once it is subscribed, so nothing published later can be missed
+     * @param fromSequence resolved lazily, after the live feed is connected
+     */
+    static Flux<SequencedMessage> of(Mono<Flux<SequencedMessage>> live, Mono<Long> fromSequence, History history) {
+        return live.flatMapMany(liveMessages -> {
+            var connectable = liveMessages.publish();
+            var connection = connectable.connect();
+
+            return fromSequence.flatMapMany(from -> {
+                        var next = new AtomicLong(from);
+                        return Flux.concat(history.read(from, Long.MAX_VALUE), connectable)
+                                .concatMap(message -> {
+                                    var expected = next.get();
+                                    if (message.sequence() < expected)
+                                        return Mono.empty();
+                                    if (message.sequence() > expected)
+                                        return history.read(expected, message.sequence()).concatWith(Mono.just(message));
+                                    return Mono.just(message);
+                                })
+                                .filter(message -> message.sequence() >= next.get())
+                                .doOnNext(message -> next.set(message.sequence() + 1));
+                    })
+                    .doFinally(_ -> connection.dispose());
+        });
+    }
+}
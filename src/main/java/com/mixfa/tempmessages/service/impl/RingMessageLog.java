@@ -0,0 +1,113 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory {@link MessageLog} backed by a ring buffer.
+ * <p>
+ * The sequence number of a message also addresses its slot, so appends and lookups are O(1).
+ * The oldest entries are evicted once either the count or the (estimated) byte budget is exceeded.
+ * Appends are serialized, reads never take a lock.
+ */
+public final class RingMessageLog implements MessageLog {
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final AtomicReferenceArray<SequencedMessage> ring;
+    private final long maxBytes;
+
+    private volatile long head;
+    private volatile long tail;
+    private volatile long bytes;
+
+    public RingMessageLog(int maxCount, long maxBytes) {
+        if (maxCount <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("Message log bounds must be positive");
+
+        this.ring = new AtomicReferenceArray<>(maxCount);
+        this.maxBytes = maxBytes;
+    }
+
+    public static long sizeOf(Message message) {
+        return ENTRY_OVERHEAD + switch (message) {
+            case TextMessage(String text) -> 2L * text.length();
+            case FileMessage(String path, String id, String filename) -> 2L * ((path == null ? 0 : path.length()) + id.length() + (filename == null ? 0 : filename.length()));
+        };
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % ring.length());
+    }
+
+    @Override
+    public synchronized SequencedMessage append(Message message) {
+        var size = sizeOf(message);
+        while (tail - head >= ring.length() || (tail > head && bytes + size > maxBytes))
+            evictOldest();
+
+        var entry = new SequencedMessage(tail, message);
+        ring.set(index(tail), entry);
+        bytes += size;
+        tail = tail + 1;
+
+        return entry;
+    }
+
+    private void evictOldest() {
+        var sequence = head;
+        head = sequence + 1;
+
+        var entry = ring.getAndSet(index(sequence), null);
+        if (entry != null)
+            bytes -= sizeOf(entry.message());
+    }
+
+    @Override
+    public SequencedMessage get(long sequence) {
+        if (sequence < head || sequence >= tail)
+            return null;
+
+        var entry = ring.get(index(sequence));
+        return entry != null && entry.sequence() == sequence ? entry : null;
+    }
+
+    @Override
+    public List<SequencedMessage> read(long fromSequence, long limit) {
+        var from = Math.max(fromSequence, head);
+        var to = Math.min(tail, from + Math.max(limit, 0));
+
+        var result = new ArrayList<SequencedMessage>((int) Math.max(to - from, 0));
+        for (long sequence = from; sequence < to; sequence++) {
+            var entry = get(sequence);
+            if (entry != null)
+                result.add(entry);
+        }
+        return result;
+    }
+
+    @Override
+    public long firstSequence() {
+        return head;
+    }
+
+    @Override
+    public long nextSequence() {
+        return tail;
+    }
+
+    @Override
+    public long size() {
+        return tail - head;
+    }
+
+    @Override
+    public long bytes() {
+        return bytes;
+    }
+}
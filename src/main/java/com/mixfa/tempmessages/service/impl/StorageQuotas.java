@@ -0,0 +1,240 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileData;
+import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.StatsSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Per-channel and global byte quotas on stored files, checked while the bytes arrive.
+ * <p>
+ * A channel uses what its registered files took when a write started, plus what is being written to it
+ * right now, plus what concurrent writes registered meanwhile; the storage as a whole uses what
+ * {@link FileStorageService#usedBytes()} reports plus every write not stored yet. A write keeps its bytes
+ * until its file is registered in the channel, so concurrent uploads cannot overrun a quota together.
+ * A quota of {@code 0} is unlimited.
+ */
+@Slf4j
+@Component
+public class StorageQuotas implements StatsSource {
+    private final FileStorageService fileStorageService;
+    private final long maxChannelBytes;
+    private final long maxTotalBytes;
+    // guarded by this
+    private final Map<String, ChannelUsage> channels = new HashMap<>();
+    private long inFlightTotal;
+    private final LongAdder rejections = new LongAdder();
+
+    public StorageQuotas(FileStorageService fileStorageService,
+                         @Value("${filestorage.quota.per-channel:1GB}") DataSize maxChannelSize,
+                         @Value("${filestorage.quota.total:0}") DataSize maxTotalSize) {
+        this.fileStorageService = fileStorageService;
+        this.maxChannelBytes = maxChannelSize.toBytes();
+        this.maxTotalBytes = maxTotalSize.toBytes();
+    }
+
+    /**
+     * Kept while a channel has open reservations.
+     */
+    private static final class ChannelUsage {
+        private long inFlight;
+        // registered by reservations closed since the oldest open one started
+        private long committed;
+        private int reservations;
+    }
+
+    /**
+     * Bytes counted against the quotas for a single write, until its file is registered or it is released.
+     */
+    public final class Reservation {
+        private final String channelName;
+        private final long committedBefore;
+        private volatile long channelBytes;
+        private long bytes;
+        private boolean stored;
+        private boolean closed;
+
+        private Reservation(String channelName, long committedBefore) {
+            this.channelName = channelName;
+            this.committedBefore = committedBefore;
+        }
+
+        private boolean grow(long length) {
+            return StorageQuotas.this.grow(this, length);
+        }
+
+        /**
+         * The file is in the storage, where {@link FileStorageService#usedBytes()} already counts it.
+         */
+        public void stored() {
+            StorageQuotas.this.stored(this);
+        }
+
+        /**
+         * The file is registered in the channel; writes still open there go on counting it.
+         */
+        public void commit() {
+            close(this, true);
+        }
+
+        public void release() {
+            close(this, false);
+        }
+    }
+
+    private static boolean exceeds(long quota, long bytes) {
+        return quota > 0 && bytes > quota;
+    }
+
+    /**
+     * Opened before the channel's registered files are looked up, so a file registered in between is
+     * counted by the reservation rather than missed by both.
+     */
+    private synchronized Reservation open(String channelName) {
+        var usage = channels.computeIfAbsent(channelName, _ -> new ChannelUsage());
+        usage.reservations++;
+        return new Reservation(channelName, usage.committed);
+    }
+
+    private synchronized boolean grow(Reservation reservation, long length) {
+        var usage = channels.get(reservation.channelName);
+        if (reservation.closed || exceeds(maxChannelBytes,
+                reservation.channelBytes + usage.committed - reservation.committedBefore + usage.inFlight + length)
+                || exceeds(maxTotalBytes, fileStorageService.usedBytes() + inFlightTotal + length)) {
+            rejections.increment();
+            return false;
+        }
+
+        usage.inFlight += length;
+        inFlightTotal += length;
+        reservation.bytes += length;
+        return true;
+    }
+
+    private synchronized void stored(Reservation reservation) {
+        if (reservation.closed || reservation.stored)
+            return;
+
+        inFlightTotal -= reservation.bytes;
+        reservation.stored = true;
+    }
+
+    private synchronized void close(Reservation reservation, boolean committed) {
+        if (reservation.closed)
+            return;
+
+        reservation.closed = true;
+        if (!reservation.stored)
+            inFlightTotal -= reservation.bytes;
+        var usage = channels.get(reservation.channelName);
+        usage.inFlight -= reservation.bytes;
+        if (committed)
+            usage.committed += reservation.bytes;
+        if (--usage.reservations == 0)
+            channels.remove(reservation.channelName);
+    }
+
+    /**
+     * Holds {@code length} bytes for content whose size is known before it arrives.
+     *
+     * @param channelBytes what the channel's registered files take, looked up on subscription
+     */
+    public Mono<Reservation> reserve(String channelName, Mono<Long> channelBytes, long length) {
+        return Mono.defer(() -> {
+            var reservation = open(channelName);
+            var handedOut = new AtomicBoolean();
+            return channelBytes
+                    .defaultIfEmpty(0L)
+                    .handle((Long bytes, SynchronousSink<Reservation> sink) -> {
+                        reservation.channelBytes = bytes;
+                        if (reservation.grow(length)) {
+                            handedOut.set(true);
+                            sink.next(reservation);
+                        } else {
+                            sink.error(new Exception("Storage quota exceeded"));
+                        }
+                    })
+                    .doOnError(_ -> reservation.release())
+                    // once handed out, the reservation belongs to the caller
+                    .doOnCancel(() -> {
+                        if (!handedOut.get())
+                            reservation.release();
+                    });
+        });
+    }
+
+    /**
+     * Stores {@code content} for a channel, failing the write as soon as it would exceed a quota, and
+     * registers the stored file with {@code register}; its bytes are held until that completes, and the
+     * file is deleted again if it fails.
+     *
+     * @param channelBytes what the channel's registered files take, looked up on subscription
+     */
+    public <T> Mono<T> write(String channelName, Mono<Long> channelBytes, String filename, Flux<DataBuffer> content,
+                             Function<FileData, Mono<T>> register) {
+        return Mono.defer(() -> {
+            var reservation = open(channelName);
+            var metered = content.<DataBuffer>handle((buffer, sink) -> {
+                if (reservation.grow(buffer.readableByteCount())) {
+                    sink.next(buffer);
+                } else {
+                    DataBufferUtils.release(buffer);
+                    sink.error(new Exception("Storage quota exceeded"));
+                }
+            });
+            return channelBytes
+                    .defaultIfEmpty(0L)
+                    .flatMap(bytes -> {
+                        reservation.channelBytes = bytes;
+                        return fileStorageService.write(filename, metered);
+                    })
+                    .doOnNext(_ -> reservation.stored())
+                    // a file that could not be registered would never be reclaimed
+                    .flatMap(savedFile -> register.apply(savedFile)
+                            .onErrorResume(ex -> Mono.fromRunnable(() -> delete(savedFile.id()))
+                                    .subscribeOn(Schedulers.boundedElastic())
+                                    .then(Mono.error(ex))))
+                    // settled before the outcome is signalled, so the caller sees the quota it left
+                    .doOnNext(_ -> reservation.commit())
+                    .doOnTerminate(reservation::release)
+                    .doOnCancel(reservation::release);
+        });
+    }
+
+    private void delete(String fileId) {
+        try {
+            fileStorageService.delete(fileId);
+        } catch (Exception ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "quotas";
+    }
+
+    @Override
+    public synchronized Object stats() {
+        return Map.of(
+                "usedBytes", fileStorageService.usedBytes(),
+                "inFlightBytes", inFlightTotal,
+                "rejections", rejections.sum()
+        );
+    }
+}
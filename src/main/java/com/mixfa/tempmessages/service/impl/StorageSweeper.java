@@ -0,0 +1,143 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.StatsSource;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reconciles the file storage with the live channels in the background.
+ * <p>
+ * Every {@code filestorage.sweeper.interval}, the ids under the storage root that no channel refers to
+ * anymore are deleted, together with the leftovers of interrupted writes: files of channels that expired
+ * in Redis, or that were lost with a crash or a restart. Nothing modified within
+ * {@code filestorage.sweeper.grace-period} is touched, which covers files still being written or not
+ * sent yet, and deletions run in batches of {@code filestorage.sweeper.batch-size} with a pause in
+ * between, so a large backlog does not compete with live traffic. The first pass runs shortly after
+ * startup rather than during it.
+ */
+@Slf4j
+@Component
+public class StorageSweeper implements StatsSource {
+    private static final Duration FIRST_PASS_DELAY = Duration.ofSeconds(30);
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ReactiveChannelsService channelsService;
+    private final FileStorageService fileStorageService;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final long batchPauseMillis;
+    private final LongAdder passes = new LongAdder();
+    private final LongAdder reclaimedFiles = new LongAdder();
+    private final LongAdder reclaimedBytes = new LongAdder();
+
+    /**
+     * @param interval {@code 0} disables the background passes
+     */
+    public StorageSweeper(ReactiveChannelsService channelsService,
+                          FileStorageService fileStorageService,
+                          @Value("${filestorage.sweeper.interval:10m}") Duration interval,
+                          @Value("${filestorage.sweeper.grace-period:1h}") Duration gracePeriod,
+                          @Value("${filestorage.sweeper.batch-size:100}") int batchSize,
+                          @Value("${filestorage.sweeper.batch-pause:1s}") Duration batchPause) {
+        this.channelsService = channelsService;
+        this.fileStorageService = fileStorageService;
+        this.gracePeriod = gracePeriod;
+        this.batchSize = Math.max(batchSize, 1);
+        this.batchPauseMillis = batchPause.toMillis();
+
+        if (interval.isPositive())
+            executor.scheduleWithFixedDelay(this::sweep,
+                    Math.min(FIRST_PASS_DELAY.toMillis(), interval.toMillis()), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One pass over the storage root.
+     *
+     * @return bytes reclaimed
+     */
+    long sweep() {
+        Set<String> live;
+        List<String> ids;
+        try {
+            // listed first, so files sent meanwhile are younger than the cutoff
+            live = channelsService.listAllFiles().collect(HashSet<String>::new, Set::add).block();
+            ids = fileStorageService.ids();
+        } catch (Exception ex) {
+            // an incomplete view of the live files must not turn them into orphans
+            log.error(ex.getLocalizedMessage());
+            return 0;
+        }
+
+        var startedAt = System.nanoTime();
+        var cutoff = Instant.now().minus(gracePeriod);
+        long files = 0;
+        long bytes = 0;
+        int batch = 0;
+        for (String id : ids) {
+            if (live.contains(id))
+                continue;
+
+            try {
+                var reclaimed = fileStorageService.sweep(id, cutoff);
+                if (reclaimed >= 0) {
+                    files++;
+                    bytes += reclaimed;
+                    reclaimedFiles.increment();
+                    reclaimedBytes.add(reclaimed);
+                }
+            } catch (Exception ex) {
+                log.error(ex.getLocalizedMessage());
+            }
+
+            if (++batch == batchSize) {
+                batch = 0;
+                try {
+                    Thread.sleep(batchPauseMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        passes.increment();
+        if (files > 0)
+            log.info("Swept {} orphaned files ({} bytes) in {} ms", files, bytes,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        return bytes;
+    }
+
+    @Override
+    public String statsName() {
+        return "sweeper";
+    }
+
+    @Override
+    public Object stats() {
+        return Map.of(
+                "passes", passes.sum(),
+                "reclaimedFiles", reclaimedFiles.sum(),
+                "reclaimedBytes", reclaimedBytes.sum()
+        );
+    }
+}
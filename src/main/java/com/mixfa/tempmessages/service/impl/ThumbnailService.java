@@ -0,0 +1,224 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.FileResponse;
+import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.StatsSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.FileCacheImageInputStream;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * JPEG thumbnails of stored images, made with ImageIO on a bounded pool.
+ * <p>
+ * Images sent to a channel are queued as soon as they are stored. At most {@code filestorage.thumbnails.workers}
+ * images are decoded at a time and at most {@code filestorage.thumbnails.queue-size} wait for a worker; what
+ * does not fit is dropped and made on first request instead. Large images are subsampled while they are
+ * decoded, so the full-size raster is never held in memory. Thumbnails are kept as a variant of the file
+ * and go away with it.
+ */
+@Slf4j
+@Service
+public class ThumbnailService implements StatsSource {
+    public static final String VARIANT = "thumbnail.jpg";
+    private static final long MAX_SOURCE_PIXELS = 100_000_000;
+    private static final Duration MAX_WAIT = Duration.ofSeconds(10);
+
+    private final FileStorageService fileStorageService;
+    private final boolean enabled;
+    private final int size;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public ThumbnailService(FileStorageService fileStorageService,
+                            @Value("${filestorage.thumbnails.enabled:true}") boolean enabled,
+                            @Value("${filestorage.thumbnails.size:256}") int size,
+                            @Value("${filestorage.thumbnails.workers:2}") int workers,
+                            @Value("${filestorage.thumbnails.queue-size:64}") int queueSize) {
+        this.fileStorageService = fileStorageService;
+        this.enabled = enabled;
+        this.size = size;
+        // decoding is CPU bound, so the pool is sized rather than virtual
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                Thread.ofPlatform().name("thumbnails-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Whether a thumbnail can be made for content of this media type.
+     */
+    public boolean supports(String contentType) {
+        return enabled && contentType != null && contentType.startsWith("image/")
+                && ImageIO.getImageReadersByMIMEType(contentType).hasNext();
+    }
+
+    /**
+     * Whether a thumbnail can be made for the file, judging by the name it was sent with.
+     */
+    public boolean supports(FileMessage message) {
+        return message.filename() != null && supports(MediaTypeFactory.getMediaType(message.filename())
+                .map(MediaType::toString)
+                .orElse(null));
+    }
+
+    /**
+     * Queues a thumbnail for the file if it is an image; never blocks.
+     */
+    public void submit(FileMessage message) {
+        if (supports(message))
+            schedule(message.id());
+    }
+
+    private CompletableFuture<Void> schedule(String id) {
+        var future = new CompletableFuture<Void>();
+        var existing = pending.putIfAbsent(id, future);
+        if (existing != null)
+            return existing;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(id);
+                    generated.increment();
+                    future.complete(null);
+                } catch (Exception ex) {
+                    failed.increment();
+                    log.error(ex.getLocalizedMessage());
+                    future.completeExceptionally(ex);
+                } finally {
+                    pending.remove(id, future);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.remove(id, future);
+            dropped.increment();
+            future.completeExceptionally(new Exception("Thumbnail queue is full"));
+        }
+        return future;
+    }
+
+    /**
+     * Readers seek back and forth, so the image is read from its file when it is on disk, and otherwise
+     * cached in a temporary file rather than on the heap.
+     */
+    private ImageInputStream openImage(String id) throws Exception {
+        var file = fileStorageService.read(id);
+        if (file.path() != null && file.contentEncoding() == null)
+            return new FileImageInputStream(file.path().toFile());
+
+        var content = DataBufferUtils.subscriberInputStream(fileStorageService.read(id, null), 1);
+        return new FileCacheImageInputStream(content, null) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    content.close();
+                }
+            }
+        };
+    }
+
+    private void generate(String id) throws Exception {
+        BufferedImage source;
+        try (var input = openImage(id)) {
+            var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext())
+                throw new Exception("Unsupported image");
+
+            var reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                var width = reader.getWidth(0);
+                var height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS)
+                    throw new Exception("Image is too large");
+
+                // keeps twice the thumbnail resolution for a smooth downscale
+                var step = Math.max(1, Math.max(width, height) / (size * 2));
+                var param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                source = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        var scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        var width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        var height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        var thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            // JPEG has no alpha channel
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        var output = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "jpg", output);
+        fileStorageService.writeVariant(id, VARIANT, output.toByteArray());
+    }
+
+    /**
+     * The thumbnail of a file with the given content type, waiting for it if it is still being made,
+     * or making it now if it was dropped or never queued.
+     */
+    public Mono<FileResponse> thumbnail(String id, String contentType) {
+        var stored = Mono.fromCallable(() -> fileStorageService.readVariant(id, VARIANT))
+                .subscribeOn(Schedulers.boundedElastic());
+
+        return stored
+                .switchIfEmpty(Mono.defer(() -> supports(contentType)
+                        ? Mono.fromFuture(schedule(id), true).timeout(MAX_WAIT).then(stored)
+                        : Mono.empty()))
+                .switchIfEmpty(Mono.error(new Exception("Thumbnail not found")));
+    }
+
+    @Override
+    public String statsName() {
+        return "thumbnails";
+    }
+
+    @Override
+    public Object stats() {
+        return Map.of(
+                "queued", executor.getQueue().size(),
+                "generated", generated.sum(),
+                "dropped", dropped.sum(),
+                "failed", failed.sum()
+        );
+    }
+}
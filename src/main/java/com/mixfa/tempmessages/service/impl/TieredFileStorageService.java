@@ -0,0 +1,437 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileData;
+import com.mixfa.tempmessages.model.FileResponse;
+import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.FileUpload;
+import com.mixfa.tempmessages.service.StatsSource;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps small files in memory and everything else on disk, behind a single id space.
+ * <p>
+ * Reactive writes of up to {@code filestorage.memory.max-file-size} end up in an LRU store bounded by
+ * {@code filestorage.memory.max-size}, on the heap or, with {@code filestorage.memory.direct}, off-heap.
+ * They never touch the file system. Files pushed out of the LRU store, and whatever is left in it on
+ * shutdown, are spilled to the {@link LocalFileStorageService} under the same id. Larger writes, uploads
+ * adopted from a path and blocking writes go to disk directly. Variants of a file in memory, like its
+ * thumbnail, are kept and counted with it. A {@code max-size} of {@code 0} turns the memory tier off,
+ * which a root shared between nodes needs, as no other node could read what this one keeps.
+ */
+@Slf4j
+@Primary
+@Service
+public class TieredFileStorageService implements FileStorageService, StatsSource {
+    private final LocalFileStorageService disk;
+    private final long maxMemoryBytes;
+    private final long maxInlineSize;
+    private final boolean direct;
+    // access ordered, guarded by itself
+    private final LinkedHashMap<String, MemoryFile> memory = new LinkedHashMap<>(16, 0.75f, true);
+    // evicted from memory, readable until they are on disk
+    private final Map<String, MemoryFile> spilling = new ConcurrentHashMap<>();
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder spills = new LongAdder();
+
+    public TieredFileStorageService(LocalFileStorageService disk,
+                                    @Value("${filestorage.memory.max-size:64MB}") DataSize maxMemorySize,
+                                    @Value("${filestorage.memory.max-file-size:64KB}") DataSize maxInlineSize,
+                                    @Value("${filestorage.memory.direct:false}") boolean direct) {
+        this.disk = disk;
+        this.maxMemoryBytes = maxMemorySize.toBytes();
+        this.maxInlineSize = Math.min(maxInlineSize.toBytes(), maxMemoryBytes);
+        this.direct = direct;
+    }
+
+    private record MemoryFile(
+            String id,
+            String filename,
+            ByteBuffer content,
+            String contentType,
+            String checksum,
+            Instant createdAt,
+            Map<String, byte[]> variants
+    ) {
+        /**
+         * Bytes counted against the budget; variants only change under the lock of {@code memory}.
+         */
+        private long footprint() {
+            long bytes = content.remaining();
+            for (byte[] variant : variants.values())
+                bytes += variant.length;
+            return bytes;
+        }
+
+        private InputStream openStream() {
+            return new InputStream() {
+                private final ByteBuffer buffer = content.asReadOnlyBuffer();
+
+                @Override
+                public int read() {
+                    return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0)
+                        return 0;
+                    if (!buffer.hasRemaining())
+                        return -1;
+                    len = Math.min(len, buffer.remaining());
+                    buffer.get(b, off, len);
+                    return len;
+                }
+            };
+        }
+    }
+
+    private MemoryFile findInMemory(String id) {
+        synchronized (memory) {
+            var file = memory.get(id);
+            if (file != null)
+                return file;
+        }
+        return spilling.get(id);
+    }
+
+    @Override
+    public FileData write(MultipartFile file) throws Exception {
+        return disk.write(file);
+    }
+
+    @Override
+    public FileData write(String filename, InputStream inputStream) throws Exception {
+        return disk.write(filename, inputStream);
+    }
+
+    @Override
+    public Mono<FileData> write(String filename, Flux<DataBuffer> content) {
+        if (maxInlineSize <= 0)
+            return disk.write(filename, content);
+
+        return Flux.defer(() -> {
+                    var size = new AtomicLong();
+                    // the first list is all of the content, unless it went over the inline size
+                    return content.bufferUntil(buffer -> size.addAndGet(buffer.readableByteCount()) > maxInlineSize)
+                            .switchOnFirst((first, lists) -> {
+                                if (first.isOnComplete())
+                                    return keep(filename, List.of());
+                                if (first.hasValue() && size.get() <= maxInlineSize)
+                                    return lists.single().flatMap(buffers -> keep(filename, buffers));
+                                return disk.write(filename, lists.concatMapIterable(buffers -> buffers));
+                            });
+                })
+                // next() would cancel the disk write right after it emitted, which aborts it
+                .singleOrEmpty();
+    }
+
+    private Mono<FileData> keep(String filename, List<DataBuffer> buffers) {
+        return Mono.fromCallable(() -> {
+                    ByteBuffer content;
+                    var digest = MessageDigest.getInstance("SHA-256");
+                    try {
+                        var length = buffers.stream().mapToInt(DataBuffer::readableByteCount).sum();
+                        content = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+                        for (DataBuffer buffer : buffers) {
+                            try (var chunks = buffer.readableByteBuffers()) {
+                                while (chunks.hasNext()) {
+                                    var chunk = chunks.next();
+                                    digest.update(chunk.duplicate());
+                                    content.put(chunk);
+                                }
+                            }
+                        }
+                    } finally {
+                        buffers.forEach(DataBufferUtils::release);
+                    }
+
+                    var name = Path.of(filename.replace("..", "")).getFileName();
+                    var safeName = name == null ? "file" : name.toString();
+                    var file = new MemoryFile(
+                            LocalFileStorageService.makeFileID(),
+                            safeName,
+                            content.flip(),
+                            MediaTypeFactory.getMediaType(safeName).orElse(MediaType.APPLICATION_OCTET_STREAM).toString(),
+                            HexFormat.of().formatHex(digest.digest()),
+                            Instant.now(),
+                            new ConcurrentHashMap<>()
+                    );
+                    put(file);
+                    return new FileData(file.id(), null, file.filename());
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private void put(MemoryFile file) {
+        List<MemoryFile> victims;
+        synchronized (memory) {
+            memory.put(file.id(), file);
+            memoryBytes.addAndGet(file.footprint());
+            victims = evictOverBudget();
+        }
+        victims.forEach(this::spill);
+    }
+
+    /**
+     * Moves the least recently used files to {@code spilling} until the rest fits the budget;
+     * called under the lock of {@code memory}, the victims are spilled after it is released.
+     */
+    private List<MemoryFile> evictOverBudget() {
+        var victims = new ArrayList<MemoryFile>();
+        var total = memoryBytes.get();
+        var eldest = memory.values().iterator();
+        while (total > maxMemoryBytes && eldest.hasNext()) {
+            var victim = eldest.next();
+            eldest.remove();
+            spilling.put(victim.id(), victim);
+            total = memoryBytes.addAndGet(-victim.footprint());
+            victims.add(victim);
+        }
+        return victims;
+    }
+
+    private void spill(MemoryFile file) {
+        try {
+            disk.writeAs(file.id(), file.filename(), file.openStream());
+            for (var variant : file.variants().entrySet())
+                disk.writeVariant(file.id(), variant.getKey(), variant.getValue());
+            spills.increment();
+            // deleted while it was being written out
+            if (!spilling.remove(file.id(), file))
+                disk.delete(file.id());
+        } catch (Exception ex) {
+            log.error(ex.getLocalizedMessage());
+            // kept in memory over budget rather than lost
+            synchronized (memory) {
+                if (spilling.remove(file.id(), file)) {
+                    memory.put(file.id(), file);
+                    memoryBytes.addAndGet(file.footprint());
+                }
+            }
+        }
+    }
+
+    @Override
+    public FileData store(String filename, Path source) throws Exception {
+        return disk.store(filename, source);
+    }
+
+    @Override
+    public FileUpload openUpload(String filename) throws Exception {
+        return disk.openUpload(filename);
+    }
+
+    @Override
+    public FileResponse read(String id) throws Exception {
+        var file = findInMemory(id);
+        if (file == null) {
+            misses.increment();
+            return disk.read(id);
+        }
+
+        hits.increment();
+        var content = file.content();
+        return new FileResponse(
+                file.filename(),
+                outputStream -> Channels.newChannel(outputStream).write(content.asReadOnlyBuffer()),
+                content.remaining(),
+                '"' + file.checksum() + '"',
+                file.createdAt(),
+                null,
+                file.contentType(),
+                null
+        );
+    }
+
+    @Override
+    public Flux<DataBuffer> read(String id, HttpRange range) {
+        return Flux.defer(() -> {
+            var file = findInMemory(id);
+            if (file == null) {
+                misses.increment();
+                return disk.read(id, range);
+            }
+
+            hits.increment();
+            var content = file.content().asReadOnlyBuffer();
+            var size = content.remaining();
+            var start = range == null ? 0 : (int) range.getRangeStart(size);
+            var end = range == null ? size : (int) range.getRangeEnd(size) + 1;
+            return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(content.slice(start, end - start)));
+        });
+    }
+
+    @Override
+    public void delete(String id) throws Exception {
+        MemoryFile removed;
+        synchronized (memory) {
+            removed = memory.remove(id);
+            if (removed != null)
+                memoryBytes.addAndGet(-removed.footprint());
+        }
+        if (removed == null && spilling.remove(id) == null)
+            disk.delete(id);
+    }
+
+    @Override
+    public void writeVariant(String id, String variant, byte[] content) throws Exception {
+        List<MemoryFile> victims;
+        synchronized (memory) {
+            var file = memory.get(id);
+            if (file == null) {
+                victims = null;
+            } else {
+                var replaced = file.variants().put(variant, content);
+                memoryBytes.addAndGet(content.length - (replaced == null ? 0 : replaced.length));
+                victims = evictOverBudget();
+            }
+        }
+        if (victims != null) {
+            victims.forEach(this::spill);
+            return;
+        }
+
+        // written out when the file is spilled
+        var spillingFile = spilling.get(id);
+        if (spillingFile != null)
+            spillingFile.variants().put(variant, content);
+        else
+            disk.writeVariant(id, variant, content);
+    }
+
+    @Override
+    public FileResponse readVariant(String id, String variant) throws Exception {
+        var file = findInMemory(id);
+        if (file == null)
+            return disk.readVariant(id, variant);
+
+        var content = file.variants().get(variant);
+        if (content == null)
+            return null;
+        return new FileResponse(
+                variant,
+                outputStream -> outputStream.write(content),
+                content.length,
+                '"' + file.checksum() + "-" + Integer.toHexString(variant.hashCode()) + '"',
+                file.createdAt(),
+                null,
+                MediaTypeFactory.getMediaType(variant).orElse(MediaType.APPLICATION_OCTET_STREAM).toString(),
+                null
+        );
+    }
+
+    @Override
+    public long usedBytes() {
+        return disk.usedBytes() + memoryBytes.get();
+    }
+
+    @Override
+    public long usedBytes(Collection<String> ids) {
+        long bytes = 0;
+        var onDisk = new ArrayList<String>();
+        for (String id : ids) {
+            var file = findInMemory(id);
+            if (file == null)
+                onDisk.add(id);
+            else
+                bytes += file.footprint();
+        }
+        return bytes + disk.usedBytes(onDisk);
+    }
+
+    @Override
+    public List<String> ids() throws Exception {
+        var ids = new ArrayList<>(disk.ids());
+        synchronized (memory) {
+            ids.addAll(memory.keySet());
+        }
+        return ids;
+    }
+
+    @Override
+    public long sweep(String id, Instant cutoff) throws Exception {
+        MemoryFile removed = null;
+        synchronized (memory) {
+            var file = memory.get(id);
+            if (file != null && !file.createdAt().isAfter(cutoff)) {
+                removed = memory.remove(id);
+                memoryBytes.addAndGet(-removed.footprint());
+            } else if (file != null) {
+                return -1;
+            }
+        }
+        return removed == null ? disk.sweep(id, cutoff) : removed.footprint();
+    }
+
+    /**
+     * Moves everything still in memory to disk, so the files outlive a restart.
+     */
+    @PreDestroy
+    public void spillAll() {
+        List<MemoryFile> files;
+        synchronized (memory) {
+            files = new ArrayList<>(memory.values());
+            memory.clear();
+            memoryBytes.set(0);
+            files.forEach(file -> spilling.put(file.id(), file));
+        }
+        files.forEach(this::spill);
+        if (!files.isEmpty())
+            log.info("Spilled {} in-memory files to disk", files.size());
+    }
+
+    @Override
+    public String statsName() {
+        return "files";
+    }
+
+    @Override
+    public Object stats() {
+        int memoryFiles;
+        synchronized (memory) {
+            memoryFiles = memory.size();
+        }
+        return Map.of(
+                "memoryFiles", memoryFiles,
+                "memoryBytes", memoryBytes.get(),
+                "diskFiles", disk.fileCount(),
+                "diskBytes", disk.usedBytes(),
+                "hits", hits.sum(),
+                "misses", misses.sum(),
+                "spills", spills.sum()
+        );
+    }
+}
@@ -0,0 +1,311 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.UploadStatus;
+import com.mixfa.tempmessages.service.FileStorageService;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.mixfa.tempmessages.service.UploadSessionService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chunked, resumable uploads in the spirit of tus.
+ * <p>
+ * A session preallocates {@code <root>/uploads/<id>.part}; chunks are written at their offsets with
+ * positional writes, in any order and in parallel, and the received ranges are tracked so a client can
+ * resume after a failure. Once every byte is there, the file is handed to the {@link FileStorageService}
+ * and sent to the channel as a {@link FileMessage}.
+ * <p>
+ * Sessions live in memory only: the ones idle for longer than {@code filestorage.uploads.session-timeout}
+ * are dropped together with their part file. Part files nobody wrote to for that long are removed as
+ * well, which covers leftovers of a previous run without touching the sessions of other instances
+ * sharing the root.
+ */
+@Slf4j
+@Service
+public class UploadSessionServiceImpl implements UploadSessionService {
+    public static final String UPLOADS_DIRECTORY = "uploads";
+    private static final Duration SWEEP_PERIOD = Duration.ofMinutes(1);
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+    private final ReactiveChannelsService channelsService;
+    private final FileStorageService fileStorageService;
+    private final StorageQuotas storageQuotas;
+    private final Path uploadsPath;
+    private final long maxSize;
+    private final long sessionTimeoutMillis;
+
+    public UploadSessionServiceImpl(ReactiveChannelsService channelsService,
+                                    FileStorageService fileStorageService,
+                                    StorageQuotas storageQuotas,
+                                    @Value("${filestorage.root}") String rootPath,
+                                    @Value("${filestorage.uploads.max-size:1GB}") DataSize maxSize,
+                                    @Value("${filestorage.uploads.session-timeout:1h}") Duration sessionTimeout) {
+        this.channelsService = channelsService;
+        this.fileStorageService = fileStorageService;
+        this.storageQuotas = storageQuotas;
+        this.uploadsPath = Path.of(rootPath, UPLOADS_DIRECTORY);
+        this.maxSize = maxSize.toBytes();
+        this.sessionTimeoutMillis = sessionTimeout.toMillis();
+
+        var period = Math.min(SWEEP_PERIOD.toMillis(), Math.max(sessionTimeoutMillis / 2, 1));
+        sweeper.execute(this::sweepPartFiles);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    private static final class UploadSession {
+        private final String id;
+        private final String channelName;
+        private final String filename;
+        private final long length;
+        private final Path path;
+        private final AsynchronousFileChannel channel;
+        private final StorageQuotas.Reservation reservation;
+        // start -> exclusive end of merged ranges
+        private final TreeMap<Long, Long> received = new TreeMap<>();
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private UploadSession(String id, String channelName, String filename, long length, Path path,
+                              AsynchronousFileChannel channel, StorageQuotas.Reservation reservation) {
+            this.id = id;
+            this.channelName = channelName;
+            this.filename = filename;
+            this.length = length;
+            this.path = path;
+            this.channel = channel;
+            this.reservation = reservation;
+        }
+
+        private synchronized void markReceived(long start, long end) {
+            if (start >= end)
+                return;
+
+            var floor = received.floorEntry(start);
+            if (floor != null && floor.getValue() >= start) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+                received.remove(floor.getKey());
+            }
+            for (var next = received.ceilingEntry(start); next != null && next.getKey() <= end; next = received.ceilingEntry(start)) {
+                end = Math.max(end, next.getValue());
+                received.remove(next.getKey());
+            }
+            received.put(start, end);
+        }
+
+        private synchronized boolean isComplete() {
+            return length == 0 || (received.size() == 1 && received.firstKey() == 0 && received.firstEntry().getValue() == length);
+        }
+
+        private synchronized UploadStatus status() {
+            var ranges = new ArrayList<UploadStatus.Range>(received.size());
+            received.forEach((start, end) -> ranges.add(new UploadStatus.Range(start, end)));
+            return new UploadStatus(id, filename, length, List.copyOf(ranges));
+        }
+    }
+
+    @Override
+    public Mono<UploadStatus> create(String channelName, String password, String filename, long length) throws Exception {
+        if (!channelsService.channelCheckCredentials(channelName, password))
+            throw new Exception("Channel not found");
+        if (length < 0 || length > maxSize)
+            throw new Exception("File is too large");
+
+        // the whole length counts against the quotas until the upload is completed or dropped
+        var channelBytes = channelsService.listFiles(channelName, password)
+                .collectList()
+                .map(fileStorageService::usedBytes);
+        return storageQuotas.reserve(channelName, channelBytes, length)
+                .flatMap(reservation -> Mono.fromCallable(() -> open(channelName, filename, length, reservation))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private UploadStatus open(String channelName, String filename, long length, StorageQuotas.Reservation reservation) throws Exception {
+        var id = UUID.randomUUID().toString().replace("-", "");
+        var path = uploadsPath.resolve(id + ".part");
+        try {
+            Files.createDirectories(uploadsPath);
+            try (var file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(length);
+            }
+
+            var session = new UploadSession(id, channelName, filename, length, path,
+                    AsynchronousFileChannel.open(path, StandardOpenOption.WRITE), reservation);
+            sessions.put(id, session);
+            return session.status();
+        } catch (IOException ex) {
+            reservation.release();
+            Files.deleteIfExists(path);
+            throw ex;
+        }
+    }
+
+    private UploadSession findOrThrow(String channelName, String password, String id) throws Exception {
+        var session = sessions.get(id);
+        if (session == null || !session.channelName.equals(channelName) || !channelsService.channelCheckCredentials(channelName, password))
+            throw new Exception("Upload not found");
+
+        session.lastActivity = System.currentTimeMillis();
+        return session;
+    }
+
+    @Override
+    public Mono<UploadStatus> write(String channelName, String password, String id, long offset, Flux<DataBuffer> chunk) throws Exception {
+        var session = findOrThrow(channelName, password, id);
+        if (offset < 0 || offset > session.length)
+            throw new Exception("Offset is out of range");
+
+        var written = new AtomicLong();
+        var bounded = chunk.<DataBuffer>handle((buffer, sink) -> {
+            if (offset + written.addAndGet(buffer.readableByteCount()) > session.length) {
+                DataBufferUtils.release(buffer);
+                sink.error(new Exception("Chunk exceeds the upload length"));
+            } else {
+                sink.next(buffer);
+            }
+        });
+
+        return DataBufferUtils.write(bounded, session.channel, offset)
+                .then(Mono.fromSupplier(() -> {
+                    session.markReceived(offset, offset + written.get());
+                    session.lastActivity = System.currentTimeMillis();
+                    return session.status();
+                }));
+    }
+
+    @Override
+    public Mono<UploadStatus> status(String channelName, String password, String id) throws Exception {
+        return Mono.just(findOrThrow(channelName, password, id).status());
+    }
+
+    @Override
+    public Mono<Message> complete(String channelName, String password, String id) throws Exception {
+        var session = findOrThrow(channelName, password, id);
+        if (!session.isComplete())
+            throw new Exception("Upload is incomplete");
+        // only one of concurrent completions gets the session
+        if (!sessions.remove(id, session))
+            throw new Exception("Upload not found");
+
+        return Mono.fromCallable(() -> {
+                    session.channel.close();
+                    var savedFile = fileStorageService.store(session.filename, session.path);
+                    session.reservation.stored();
+                    return savedFile;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnError(_ -> discard(session))
+                .flatMap(savedFile -> {
+                    try {
+                        return channelsService.sendMessage(channelName, password, new FileMessage(savedFile))
+                                // a stored file that never made it into the channel would never be deleted
+                                .onErrorResume(ex -> Mono.fromRunnable(() -> deleteStored(savedFile.id()))
+                                        .subscribeOn(Schedulers.boundedElastic())
+                                        .then(Mono.error(ex)))
+                                .doOnNext(_ -> session.reservation.commit());
+                    } catch (Exception e) {
+                        deleteStored(savedFile.id());
+                        return Mono.error(e);
+                    }
+                })
+                .doOnTerminate(session.reservation::release)
+                .doOnCancel(session.reservation::release);
+    }
+
+    @Override
+    public Mono<Void> abort(String channelName, String password, String id) throws Exception {
+        var session = findOrThrow(channelName, password, id);
+        return Mono.<Void>fromRunnable(() -> {
+                    if (sessions.remove(id, session))
+                        discard(session);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private void sweep() {
+        var deadline = System.currentTimeMillis() - sessionTimeoutMillis;
+        for (UploadSession session : sessions.values()) {
+            if (session.lastActivity < deadline && sessions.remove(session.id, session)) {
+                log.info("Dropping abandoned upload {}", session.id);
+                discard(session);
+            }
+        }
+        sweepPartFiles();
+    }
+
+    /**
+     * Removes part files nobody wrote to for a session timeout and that belong to no session of this node,
+     * whether left over from a previous run or from an instance that died mid-upload.
+     */
+    private void sweepPartFiles() {
+        if (!Files.isDirectory(uploadsPath))
+            return;
+
+        var deadline = System.currentTimeMillis() - sessionTimeoutMillis;
+        try (var files = Files.list(uploadsPath)) {
+            files.filter(path -> path.getFileName().toString().endsWith(".part"))
+                    .filter(path -> !sessions.containsKey(path.getFileName().toString().replace(".part", "")))
+                    .forEach(path -> {
+                        try {
+                            if (Files.getLastModifiedTime(path).toMillis() < deadline && Files.deleteIfExists(path))
+                                log.info("Removed stale part file {}", path.getFileName());
+                        } catch (IOException ex) {
+                            log.error(ex.getLocalizedMessage());
+                        }
+                    });
+        } catch (IOException ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    private void deleteStored(String fileId) {
+        try {
+            fileStorageService.delete(fileId);
+        } catch (Exception ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+
+    private static void discard(UploadSession session) {
+        session.reservation.release();
+        try {
+            session.channel.close();
+            Files.deleteIfExists(session.path);
+        } catch (IOException ex) {
+            log.error(ex.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Remembers channel passwords that already passed the (deliberately slow) password encoder.
+ * <p>
+ * Only a keyed HMAC of a verified password is kept, under a key generated per process, together
+ * with the password hash it was verified against. A later check with the same password costs one
+ * HMAC instead of a BCrypt round; a recreated channel gets a new hash and never matches an old
+ * entry. Failed checks are never cached, so guessing still pays the full encoder cost.
+ */
+@Component
+public class VerifiedCredentialsCache {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder passwordEncoder;
+    private final Duration timeToLive;
+    private final Map<String, VerifiedCredentials> verified;
+    private final ThreadLocal<Mac> mac;
+
+    private record VerifiedCredentials(String passwordHash, byte[] digest, long expiresAt) {
+    }
+
+    public VerifiedCredentialsCache(PasswordEncoder passwordEncoder,
+                                    @Value("${channel.credentials-cache.size:10000}") int maxSize,
+                                    @Value("${channel.credentials-cache.time-to-live:10m}") Duration timeToLive) {
+        this.passwordEncoder = passwordEncoder;
+        this.timeToLive = timeToLive;
+        this.verified = Collections.synchronizedMap(new LRUMap<>(maxSize));
+
+        var secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        var key = new SecretKeySpec(secret, ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                var instance = Mac.getInstance(ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private byte[] digest(String channelName, String passwordHash, String password) {
+        var instance = mac.get();
+        instance.update(channelName.getBytes(StandardCharsets.UTF_8));
+        instance.update((byte) 0);
+        instance.update(passwordHash.getBytes(StandardCharsets.UTF_8));
+        instance.update((byte) 0);
+        return instance.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean matches(String channelName, String password, String passwordHash) {
+        var digest = digest(channelName, passwordHash, password);
+        var now = System.currentTimeMillis();
+
+        var entry = verified.get(channelName);
+        if (entry != null && entry.expiresAt() > now && entry.passwordHash().equals(passwordHash)
+                && MessageDigest.isEqual(entry.digest(), digest))
+            return true;
+
+        if (!passwordEncoder.matches(password, passwordHash))
+            return false;
+
+        verified.put(channelName, new VerifiedCredentials(passwordHash, digest, now + timeToLive.toMillis()));
+        return true;
+    }
+
+    public void invalidate(String channelName) {
+        verified.remove(channelName);
+    }
+
+    public int size() {
+        return verified.size();
+    }
+}
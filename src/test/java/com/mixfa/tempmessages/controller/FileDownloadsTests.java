@@ -0,0 +1,109 @@
+package com.mixfa.tempmessages.controller;
+
+import com.mixfa.tempmessages.service.impl.LocalFileStorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileDownloadsTests {
+
+    @Test
+    void servesRangesAndConditionalRequests(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var id = storage.write("notes.txt", new ByteArrayInputStream("0123456789".getBytes())).id();
+        var file = storage.read(id);
+
+        var ranged = new MockHttpServletRequest("GET", "/");
+        ranged.addHeader("Range", "bytes=2-5");
+        ranged.addHeader("If-Range", file.etag());
+        var partial = new MockHttpServletResponse();
+        FileDownloads.serve(file, ranged, partial);
+        assertEquals(206, partial.getStatus());
+        assertEquals("bytes 2-5/10", partial.getHeader("Content-Range"));
+        assertEquals("2345", partial.getContentAsString());
+        assertEquals("text/plain", partial.getContentType());
+
+        var stale = new MockHttpServletRequest("GET", "/");
+        stale.addHeader("Range", "bytes=2-5");
+        stale.addHeader("If-Range", "\"outdated\"");
+        var full = new MockHttpServletResponse();
+        FileDownloads.serve(file, stale, full);
+        assertEquals(200, full.getStatus());
+        assertEquals(10, full.getContentLength());
+        assertEquals("0123456789", full.getContentAsString());
+
+        var cached = new MockHttpServletRequest("GET", "/");
+        cached.addHeader("If-None-Match", file.etag());
+        var notModified = new MockHttpServletResponse();
+        FileDownloads.serve(file, cached, notModified);
+        assertEquals(304, notModified.getStatus());
+    }
+
+    @Test
+    void servesCompressedFilesAsIsOnlyToClientsAcceptingGzip(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, true);
+        var text = "line of a log file\n".repeat(1000);
+        var id = storage.write("app.log", new ByteArrayInputStream(text.getBytes())).id();
+        var file = storage.read(id);
+        assertEquals("gzip", file.contentEncoding());
+        assertTrue(file.size() < text.length() / 5);
+
+        var gzipClient = new MockHttpServletRequest("GET", "/");
+        gzipClient.addHeader("Accept-Encoding", "br;q=1.0, gzip;q=0.8");
+        var encoded = new MockHttpServletResponse();
+        FileDownloads.serve(file, gzipClient, encoded);
+        assertEquals("gzip", encoded.getHeader("Content-Encoding"));
+        assertEquals(file.size(), encoded.getContentLength());
+        try (var decoded = new GZIPInputStream(new ByteArrayInputStream(encoded.getContentAsByteArray()))) {
+            assertEquals(text, new String(decoded.readAllBytes()));
+        }
+
+        var plainClient = new MockHttpServletRequest("GET", "/");
+        plainClient.addHeader("Accept-Encoding", "gzip;q=0");
+        var plain = new MockHttpServletResponse();
+        FileDownloads.serve(file, plainClient, plain);
+        assertNull(plain.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", plain.getHeader("Vary"));
+        assertEquals(text, plain.getContentAsString());
+        // a tag of its own, since the bytes are not the stored ones
+        var decodedTag = plain.getHeader("ETag");
+        assertTrue(decodedTag.startsWith("W/"));
+        assertNotEquals(file.etag(), decodedTag);
+        assertNotNull(plain.getHeader("Last-Modified"));
+
+        var ranged = new MockHttpServletRequest("GET", "/");
+        ranged.addHeader("Range", "bytes=0-9");
+        var whole = new MockHttpServletResponse();
+        FileDownloads.serve(storage.read(id), ranged, whole);
+        assertEquals(200, whole.getStatus());
+        assertEquals("none", whole.getHeader("Accept-Ranges"));
+        assertEquals(text, whole.getContentAsString());
+
+        var head = new MockHttpServletResponse();
+        FileDownloads.serve(storage.read(id), new MockHttpServletRequest("HEAD", "/"), head);
+        assertEquals(decodedTag, head.getHeader("ETag"));
+        assertEquals(0, head.getContentAsByteArray().length);
+
+        var cached = new MockHttpServletRequest("GET", "/");
+        cached.addHeader("If-None-Match", decodedTag);
+        var notModified = new MockHttpServletResponse();
+        FileDownloads.serve(storage.read(id), cached, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+
+        // the stored bytes' tag does not validate the decoded ones
+        var stale = new MockHttpServletRequest("GET", "/");
+        stale.addHeader("If-None-Match", file.etag());
+        var refetched = new MockHttpServletResponse();
+        FileDownloads.serve(storage.read(id), stale, refetched);
+        assertEquals(200, refetched.getStatus());
+    }
+}
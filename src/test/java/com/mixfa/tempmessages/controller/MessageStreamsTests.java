@@ -0,0 +1,57 @@
+package com.mixfa.tempmessages.controller;
+
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MessageStreamsTests {
+
+    @Test
+    void streamsPerChannelAreCapped() throws Exception {
+        var channelsService = mock(ReactiveChannelsService.class);
+        var live = Sinks.many().multicast().<Message>directBestEffort();
+        when(channelsService.listenMessages("channel", "password")).thenReturn(live.asFlux());
+        when(channelsService.channelCheckCredentials("channel", "password")).thenReturn(true);
+        when(channelsService.channelExists("channel")).thenReturn(true);
+        var streams = new MessageStreams(channelsService, 1, Duration.ofSeconds(15));
+
+        var first = streams.listen("channel", "password").subscribe();
+        var rejected = assertThrows(ResponseStatusException.class, () -> streams.listen("channel", "password"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+        first.dispose();
+        streams.listen("channel", "password").subscribe().dispose();
+
+        // refused before they count against the cap
+        var wrongPassword = assertThrows(ResponseStatusException.class, () -> streams.listen("channel", "wrong"));
+        assertEquals(HttpStatus.UNAUTHORIZED, wrongPassword.getStatusCode());
+        var unknown = assertThrows(ResponseStatusException.class, () -> streams.listen("unknown", "password", 0));
+        assertEquals(HttpStatus.NOT_FOUND, unknown.getStatusCode());
+        streams.listen("channel", "password").subscribe().dispose();
+    }
+
+    @Test
+    void idleStreamsGetHeartbeatsUntilTheyEnd() {
+        var streams = new MessageStreams(mock(ReactiveChannelsService.class), 1, Duration.ofSeconds(15));
+        var message = new SequencedMessage(0, new TextMessage("a"));
+
+        StepVerifier.withVirtualTime(() -> streams.withHeartbeats(
+                        Flux.just(message).delayElements(Duration.ofSeconds(20)).map(Object::toString), "heartbeat"))
+                .thenAwait(Duration.ofSeconds(15))
+                .expectNext("heartbeat")
+                .thenAwait(Duration.ofSeconds(5))
+                .expectNext(message.toString())
+                .verifyComplete();
+    }
+}
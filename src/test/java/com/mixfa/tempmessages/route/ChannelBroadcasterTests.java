@@ -0,0 +1,97 @@
+package com.mixfa.tempmessages.route;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.Command;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChannelBroadcasterTests {
+
+    private static UI ui() {
+        var ui = mock(UI.class);
+        when(ui.access(any())).thenAnswer(invocation -> {
+            invocation.getArgument(0, Command.class).execute();
+            return null;
+        });
+        return ui;
+    }
+
+    @Test
+    void viewsShareOneSubscriptionUntilTheLastLeaves() throws Exception {
+        var messages = Sinks.many().multicast().<SequencedMessage>directBestEffort();
+        var channelsService = mock(ReactiveChannelsService.class);
+        when(channelsService.channelExists("channel")).thenReturn(true);
+        when(channelsService.channelCheckCredentials("channel", "password")).thenReturn(true);
+        when(channelsService.listenMessages("channel", "password", Long.MAX_VALUE)).thenReturn(messages.asFlux());
+        var broadcaster = new ChannelBroadcaster(channelsService, Duration.ofMillis(20), 2);
+
+        var received = new CopyOnWriteArrayList<SequencedMessage>();
+        var delivered = new CountDownLatch(2);
+        var first = broadcaster.register("channel", "password", ui(), batch -> {
+            received.addAll(batch);
+            if (received.size() == 2)
+                delivered.countDown();
+        }, () -> {});
+        var second = broadcaster.register("channel", "password", ui(), _ -> delivered.countDown(), () -> {});
+        assertThrows(Exception.class, () -> broadcaster.register("channel", "wrong", ui(), _ -> {}, () -> {}));
+        verify(channelsService, times(1)).listenMessages("channel", "password", Long.MAX_VALUE);
+
+        var a = new SequencedMessage(1, new TextMessage("a"));
+        var b = new SequencedMessage(2, new TextMessage("b"));
+        messages.tryEmitNext(a);
+        messages.tryEmitNext(b);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(a, b), received);
+
+        first.remove();
+        assertEquals(1, messages.currentSubscriberCount());
+        second.remove();
+        assertEquals(0, messages.currentSubscriberCount());
+    }
+
+    @Test
+    void aFailedSubscriptionResumesAfterTheLastMessage() throws Exception {
+        var failing = Sinks.many().multicast().<SequencedMessage>directBestEffort();
+        var resumed = Sinks.many().multicast().<SequencedMessage>directBestEffort();
+        var channelsService = mock(ReactiveChannelsService.class);
+        when(channelsService.channelExists("channel")).thenReturn(true);
+        when(channelsService.channelCheckCredentials("channel", "password")).thenReturn(true);
+        when(channelsService.listenMessages("channel", "password", Long.MAX_VALUE)).thenReturn(failing.asFlux());
+        when(channelsService.listenMessages("channel", "password", 2)).thenReturn(resumed.asFlux());
+        var broadcaster = new ChannelBroadcaster(channelsService, Duration.ofMillis(20), 2);
+
+        var received = new CopyOnWriteArrayList<SequencedMessage>();
+        var delivered = new CountDownLatch(2);
+        var closed = new CountDownLatch(1);
+        broadcaster.register("channel", "password", ui(), batch -> {
+            received.addAll(batch);
+            batch.forEach(_ -> delivered.countDown());
+        }, closed::countDown);
+
+        var a = new SequencedMessage(1, new TextMessage("a"));
+        var b = new SequencedMessage(2, new TextMessage("b"));
+        failing.tryEmitNext(a);
+        failing.tryEmitError(new Exception("Connection lost"));
+        verify(channelsService, timeout(5000)).listenMessages("channel", "password", 2);
+        resumed.tryEmitNext(b);
+        resumed.tryEmitComplete();
+
+        // the channel is gone once its messages end
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(a, b), received);
+    }
+}
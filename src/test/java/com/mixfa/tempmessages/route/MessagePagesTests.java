@@ -0,0 +1,106 @@
+package com.mixfa.tempmessages.route;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagePagesTests {
+
+    private static SequencedMessage message(long sequence) {
+        return new SequencedMessage(sequence, new TextMessage("message " + sequence));
+    }
+
+    /**
+     * A history of {@code [first, last]} without {@code evicted}.
+     */
+    private static MessagePages.Loader history(long first, long last, AtomicInteger loads, long... evicted) {
+        return (fromSequence, limit) -> {
+            loads.incrementAndGet();
+            return LongStream.rangeClosed(Math.max(fromSequence, first), last)
+                    .filter(sequence -> LongStream.of(evicted).noneMatch(e -> e == sequence))
+                    .limit(limit)
+                    .mapToObj(MessagePagesTests::message)
+                    .toList();
+        };
+    }
+
+    private static List<Long> sequences(List<SequencedMessage> rows) {
+        return rows.stream().map(SequencedMessage::sequence).toList();
+    }
+
+    @Test
+    void rowsAreFetchedAcrossPagesAndCached() throws Exception {
+        var loads = new AtomicInteger();
+        // 120 retained messages, 11 to 130
+        var history = history(11, 130, loads, 60);
+        var pages = new MessagePages(8, 1000);
+        pages.start(130, 120);
+        assertEquals(120, pages.size());
+
+        // rows 30..49 span two pages
+        var rows = pages.fetch(30, 20, history);
+        assertEquals(LongStream.range(41, 61).boxed().toList(), sequences(rows));
+        assertEquals(2, loads.get());
+        assertSame(MessagePages.EXPIRED, rows.get(19).message());
+
+        // served from the cache, cut at the end of the list
+        rows = pages.fetch(95, 50, history);
+        assertEquals(LongStream.rangeClosed(106, 130).boxed().toList(), sequences(rows));
+        assertEquals(3, loads.get());
+        pages.fetch(0, 100, history);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void newMessagesGrowTheListWithoutLoading() throws Exception {
+        var loads = new AtomicInteger();
+        var pages = new MessagePages(8, 1000);
+        // sent before the history was looked up, and again afterwards
+        assertFalse(pages.append(List.of(message(3))));
+        pages.start(2, 2);
+        assertEquals(3, pages.size());
+
+        assertTrue(pages.append(List.of(message(4), message(5))));
+        assertFalse(pages.append(List.of(message(5))));
+        assertEquals(5, pages.size());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), sequences(pages.fetch(0, 10, history(1, 5, loads))));
+        assertEquals(1, loads.get());
+
+        // a page that only ever had new messages needs no loading
+        var fresh = new MessagePages(8, 1000);
+        fresh.start(-1, 0);
+        assertEquals(0, fresh.size());
+        fresh.append(List.of(message(7), message(8)));
+        assertEquals(List.of(7L, 8L), sequences(fresh.fetch(0, 50, history(7, 8, loads))));
+        assertEquals(1, loads.get());
+
+        // a message the view missed is loaded rather than shown as expired
+        fresh.append(List.of(message(10)));
+        var rows = fresh.fetch(0, 50, history(7, 10, loads));
+        assertEquals(List.of(7L, 8L, 9L, 10L), sequences(rows));
+        assertNotSame(MessagePages.EXPIRED, rows.get(2).message());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void oldestRowsAreDroppedPastTheCap() throws Exception {
+        var loads = new AtomicInteger();
+        var history = history(0, 151, loads);
+        var pages = new MessagePages(8, 100);
+        // 150 retained, only the latest 100 are shown
+        pages.start(149, 150);
+        assertEquals(100, pages.size());
+        assertEquals(List.of(50L), sequences(pages.fetch(0, 1, history)));
+
+        assertTrue(pages.append(List.of(message(150), message(151))));
+        assertEquals(100, pages.size());
+        assertEquals(List.of(52L, 53L), sequences(pages.fetch(0, 2, history)));
+        assertEquals(List.of(150L, 151L), sequences(pages.fetch(98, 5, history)));
+    }
+}
@@ -0,0 +1,54 @@
+package com.mixfa.tempmessages.route;
+
+import com.mixfa.tempmessages.service.FileStorageService;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadPipeTests {
+
+    private static Mono<Integer> readAll(UploadPipe pipe) {
+        return FileStorageService.content(pipe::inputStream)
+                .map(DataBuffer::readableByteCount)
+                .reduce(0, Integer::sum);
+    }
+
+    private static void write(UploadPipe pipe, int length) throws Exception {
+        try (OutputStream output = pipe.outputStream()) {
+            output.write(new byte[length]);
+        }
+    }
+
+    @Test
+    void bytesAreHandedOverOnceTheUploadSucceeded() throws Exception {
+        var pipe = new UploadPipe(1024);
+        var read = readAll(pipe).toFuture();
+        write(pipe, 10_000);
+        // closed, but not settled yet
+        Thread.sleep(100);
+        assertFalse(read.isDone());
+
+        pipe.succeeded();
+        assertEquals(10_000, read.get());
+    }
+
+    @Test
+    void aFailedUploadFailsTheRead() throws Exception {
+        var pipe = new UploadPipe(1024);
+        var read = readAll(pipe).toFuture();
+        write(pipe, 100);
+        pipe.failed();
+        assertThrows(Exception.class, read::get);
+
+        // a closed pipe refuses further writes
+        var closed = new UploadPipe(1024);
+        readAll(closed).subscribeOn(Schedulers.boundedElastic()).subscribe(_ -> {}, _ -> {});
+        closed.close();
+        assertThrows(Exception.class, () -> write(closed, 10_000));
+    }
+}
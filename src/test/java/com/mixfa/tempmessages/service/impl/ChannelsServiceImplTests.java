@@ -0,0 +1,81 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.TempMessagesApplication;
+import com.mixfa.tempmessages.model.Message;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelsServiceImplTests {
+
+    /**
+     * {@code ChannelStorage.local} looks its beans up in the application context.
+     */
+    private static ChannelsServiceImpl channelsService(Path root, int maxMessages) {
+        var passwordEncoder = new BCryptPasswordEncoder(4);
+        var context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("passwordEncoder", passwordEncoder);
+        context.getBeanFactory().registerSingleton("verifiedCredentialsCache",
+                new VerifiedCredentialsCache(passwordEncoder, 100, Duration.ofMinutes(10)));
+        context.refresh();
+        new TempMessagesApplication().setApplicationContext(context);
+
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        return new ChannelsServiceImpl(
+                storage,
+                new StorageQuotas(storage, DataSize.ofMegabytes(1), DataSize.ofBytes(0)),
+                new ThumbnailService(storage, false, 64, 1, 1),
+                new MessageLogFactory(maxMessages, DataSize.ofMegabytes(1), false, root.toString(),
+                        DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)),
+                Duration.ofHours(1),
+                false,
+                DataSize.ofMegabytes(64),
+                16,
+                MessageFanout.OverflowPolicy.DROP_OLDEST
+        );
+    }
+
+    private static List<String> texts(Flux<? extends Message> messages) {
+        return messages.map(message -> ((TextMessage) message).text()).collectList().block();
+    }
+
+    @Test
+    void pagesCountAndReadWithinTheRetainedHistory(@TempDir Path root) throws Exception {
+        var channelsService = channelsService(root, 10);
+        channelsService.createChannel("channel", "password").block();
+        assertEquals(0, channelsService.countMessages("channel", "password").block());
+
+        channelsService.sendMessages("channel", "password",
+                Flux.range(1, 15).map(i -> new TextMessage("m" + i))).blockLast();
+        // the five oldest are evicted
+        assertEquals(10, channelsService.countMessages("channel", "password").block());
+        assertThrows(Exception.class, () -> channelsService.countMessages("channel", "wrong"));
+
+        // offsets count from the oldest retained message
+        assertEquals(List.of("m6", "m7", "m8"), texts(channelsService.listMessages("channel", "password", 0, 3)));
+        assertEquals(List.of("m14", "m15"), texts(channelsService.listMessages("channel", "password", 8, 5)));
+        assertEquals(List.of(), texts(channelsService.listMessages("channel", "password", 10, 5)));
+
+        // sequences are absolute, evicted ones are skipped
+        var first = channelsService.readMessages("channel", "password", 0, 2).map(SequencedMessage::sequence).collectList().block();
+        assertEquals(2, first.size());
+        assertEquals(first.getFirst() + 1, first.getLast());
+        assertEquals(List.of("m15"), texts(channelsService.readMessages("channel", "password", -1, 5).map(SequencedMessage::message)));
+        assertEquals(
+                IntStream.rangeClosed(12, 15).mapToObj(i -> "m" + i).toList(),
+                texts(channelsService.readMessages("channel", "password", -4, 10).map(SequencedMessage::message))
+        );
+    }
+}
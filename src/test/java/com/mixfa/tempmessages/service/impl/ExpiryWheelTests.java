@@ -0,0 +1,76 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpiryWheelTests {
+
+    /**
+     * Moves the clock forward one tick at a time, like the scheduled ticker would.
+     */
+    private static void elapse(ExpiryWheel<?> wheel, AtomicLong clock, long millis) {
+        for (long i = 0; i < millis; i += 10) {
+            clock.addAndGet(10);
+            wheel.advance();
+        }
+    }
+
+    @Test
+    void expiresScheduledAndSkipsCancelledKeys() {
+        var clock = new AtomicLong(1_000_000);
+        var expired = new ArrayList<String>();
+        var wheel = new ExpiryWheel<String>(Duration.ofMillis(10), 8, expired::addAll, clock::get);
+
+        wheel.schedule("a", Duration.ofMillis(50));
+        wheel.schedule("b", Duration.ofMillis(50));
+        wheel.schedule("c", Duration.ofMillis(200));
+        wheel.cancel("b");
+        assertEquals(2, wheel.pending());
+
+        elapse(wheel, clock, 40);
+        assertTrue(expired.isEmpty());
+
+        elapse(wheel, clock, 20);
+        assertEquals(List.of("a"), expired);
+
+        elapse(wheel, clock, 150);
+        assertEquals(List.of("a", "c"), expired);
+        assertEquals(0, wheel.pending());
+    }
+
+    @Test
+    void touchExtendsDeadline() {
+        var clock = new AtomicLong(1_000_000);
+        var expired = new ArrayList<String>();
+        var wheel = new ExpiryWheel<String>(Duration.ofMillis(10), 8, expired::addAll, clock::get);
+
+        wheel.schedule("a", Duration.ofMillis(100));
+        for (int i = 0; i < 5; i++) {
+            elapse(wheel, clock, 50);
+            wheel.touch("a", Duration.ofMillis(100));
+        }
+        assertTrue(expired.isEmpty());
+
+        elapse(wheel, clock, 110);
+        assertEquals(List.of("a"), expired);
+    }
+
+    @Test
+    void catchesUpOnMissedTicks() {
+        var clock = new AtomicLong(1_000_000);
+        var expired = new ArrayList<String>();
+        var wheel = new ExpiryWheel<String>(Duration.ofMillis(10), 8, expired::addAll, clock::get);
+
+        wheel.schedule("a", Duration.ofMillis(30));
+        clock.addAndGet(50);
+        wheel.advance();
+        assertEquals(List.of("a"), expired);
+    }
+}
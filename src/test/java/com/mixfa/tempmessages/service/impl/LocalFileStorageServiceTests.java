@@ -0,0 +1,137 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpRange;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalFileStorageServiceTests {
+
+    private static long countBlobs(Path root) throws Exception {
+        try (var files = Files.walk(root.resolve(LocalFileStorageService.BLOBS_DIRECTORY))) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().length() == 64)
+                    .count();
+        }
+    }
+
+    @Test
+    void sameContentIsStoredOnceUntilLastReferenceIsDeleted(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), true, DataSize.ofMegabytes(25), false, false);
+        var content = "shared content".getBytes();
+
+        var first = storage.write("a.txt", new ByteArrayInputStream(content));
+        var second = storage.write("b.txt", new ByteArrayInputStream(content));
+        assertNotEquals(first.id(), second.id());
+        assertEquals(1, countBlobs(root));
+
+        storage.delete(first.id());
+        assertEquals(1, countBlobs(root));
+
+        var read = new ByteArrayOutputStream();
+        storage.read(second.id()).streamingResponse().writeTo(read);
+        assertArrayEquals(content, read.toByteArray());
+
+        storage.delete(second.id());
+        assertEquals(0, countBlobs(root));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void indexSurvivesRestartAndDeleteLeavesNoDirectory(boolean persistIndex, @TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), persistIndex, false);
+        var kept = storage.write("kept\tname.txt", new ByteArrayInputStream("kept".getBytes()));
+        var deleted = storage.write("deleted.txt", new ByteArrayInputStream("deleted".getBytes()));
+        storage.delete(deleted.id());
+        assertFalse(Files.exists(root.resolve(deleted.id())));
+
+        var restarted = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), persistIndex, false);
+        var file = restarted.read(kept.id());
+        assertEquals("kept\tname.txt", file.filename());
+        assertEquals(4, file.size());
+        assertEquals("text/plain", file.contentType());
+        assertThrows(Exception.class, () -> restarted.read(deleted.id()));
+    }
+
+    @Test
+    void indexJournalIsCompactedOnceDeadRecordsOutnumberLiveOnes(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), true, false);
+        var kept = storage.write("kept.txt", new ByteArrayInputStream("kept".getBytes()));
+        for (int i = 0; i < 600; i++)
+            storage.delete(storage.write(i + ".txt", new ByteArrayInputStream(("file " + i).getBytes())).id());
+
+        var journal = root.resolve(FileIndex.INDEX_DIRECTORY).resolve("files.log");
+        try (var records = Files.lines(journal)) {
+            assertTrue(records.count() < 1024);
+        }
+        var restarted = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), true, false);
+        assertEquals("kept.txt", restarted.read(kept.id()).filename());
+        assertEquals(4, restarted.usedBytes());
+    }
+
+    @Test
+    void writesAndReadsRangesReactively(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofBytes(16), false, false);
+        var factory = DefaultDataBufferFactory.sharedInstance;
+        var content = Flux.just("0123", "4567", "89").<DataBuffer>map(chunk -> factory.wrap(chunk.getBytes()));
+
+        var saved = storage.write("digits.txt", content).block();
+        assertNotNull(saved);
+        assertEquals("0123456789", Files.readString(Path.of(saved.path())));
+
+        var range = DataBufferUtils.join(storage.read(saved.id(), HttpRange.createByteRange(3, 6)))
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .block();
+        assertEquals("3456", range);
+
+        var tooLarge = Flux.just("0123456789", "0123456789").<DataBuffer>map(chunk -> factory.wrap(chunk.getBytes()));
+        assertThrows(Exception.class, () -> storage.write("large.txt", tooLarge).block());
+        try (var directories = Files.list(root)) {
+            assertEquals(1, directories.filter(directory -> !directory.endsWith("index")).count());
+        }
+    }
+
+    @Test
+    void compressesOnlyCompressibleContent(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, true);
+        var text = "{\"key\": \"value\"}\n".repeat(500);
+        var png = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0, 1, 2, 3};
+
+        var json = storage.write("dump.json", new ByteArrayInputStream(text.getBytes()));
+        var image = storage.write("picture", new ByteArrayInputStream(png));
+        var factory = DefaultDataBufferFactory.sharedInstance;
+        var reactive = storage.write("dump.csv", Flux.just(text, text).<DataBuffer>map(chunk -> factory.wrap(chunk.getBytes()))).block();
+        assertNotNull(reactive);
+
+        assertEquals("gzip", storage.read(json.id()).contentEncoding());
+        assertNull(storage.read(image.id()).contentEncoding());
+        assertEquals("gzip", storage.read(reactive.id()).contentEncoding());
+
+        var restarted = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, true);
+        var read = new ByteArrayOutputStream();
+        restarted.read(reactive.id()).streamingResponse().writeTo(read);
+        assertEquals(text + text, read.toString(StandardCharsets.UTF_8));
+
+        var range = DataBufferUtils.join(restarted.read(json.id(), HttpRange.createByteRange(1, 5)))
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .block();
+        assertEquals("\"key\"", range);
+
+        restarted.delete(json.id());
+        assertFalse(Files.exists(root.resolve(json.id())));
+    }
+}
@@ -0,0 +1,43 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.Channel;
+import com.mixfa.tempmessages.service.ChannelStorage;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MapChannelStorageImplTests {
+
+    @Test
+    void leastRecentlyAccessedChannelsAreEvictedAcrossStripes() throws Exception {
+        var passwordEncoder = new BCryptPasswordEncoder(4);
+        var footprint = new Channel("a", passwordEncoder.encode("password")).footprint();
+        var storage = new MapChannelStorageImpl<>(Channel::new, passwordEncoder,
+                new VerifiedCredentialsCache(passwordEncoder, 100, Duration.ofMinutes(10)),
+                new ChannelStorage.Settings(Duration.ofHours(1), false, footprint * 16 / 5));
+        var destroyed = new CopyOnWriteArrayList<String>();
+        storage.subscribeToChannelDestruction(channel -> destroyed.add(channel.name()));
+
+        for (String name : List.of("a", "b", "c")) {
+            storage.createChannel(name, "password");
+            Thread.sleep(5);
+        }
+        storage.getChannelOrThrow("a", "password");
+        Thread.sleep(5);
+        // over the budget, evicted down to 90% of it
+        storage.createChannel("d", "password");
+
+        var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (destroyed.size() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertEquals(List.of("b", "c"), destroyed);
+        assertTrue(storage.channelExists("a"));
+        assertTrue(storage.channelExists("d"));
+        assertEquals(2 * footprint, storage.stats().usedBytes());
+    }
+}
@@ -0,0 +1,78 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedMessageLogTests {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackAcrossSegments() {
+        var log = new MappedMessageLog(directory.resolve("channel"), 64, 1000, Long.MAX_VALUE);
+        for (int i = 0; i < 20; i++)
+            log.append(new TextMessage("message " + i));
+        log.append(new FileMessage("/files/a.txt", "abc"));
+        // kept in memory, so there is no path to take the name from
+        log.append(new FileMessage(null, "def", "b.txt"));
+
+        assertEquals(0, log.firstSequence());
+        assertEquals(22, log.size());
+        assertEquals(new TextMessage("message 7"), log.get(7).message());
+        assertEquals(new FileMessage("/files/a.txt", "abc"), log.get(20).message());
+        assertEquals(new FileMessage(null, "def", "b.txt"), log.get(21).message());
+        assertEquals(
+                List.of(5L, 6L, 7L),
+                log.window(5, 3).stream().map(SequencedMessage::sequence).toList()
+        );
+    }
+
+    @Test
+    void dropsOldestSegmentsAndDeletesFiles() throws Exception {
+        var channelDirectory = directory.resolve("channel");
+        var log = new MappedMessageLog(channelDirectory, 64, 10, Long.MAX_VALUE);
+        for (int i = 0; i < 50; i++)
+            log.append(new TextMessage("message " + i));
+
+        // the count is kept per message, whole segments only go once they hold none of the last 10
+        assertEquals(40, log.firstSequence());
+        assertEquals(10, log.size());
+        assertNull(log.get(39));
+        assertEquals(new TextMessage("message 40"), log.get(40).message());
+        assertEquals(List.of(40L, 41L), log.read(0, 2).stream().map(SequencedMessage::sequence).toList());
+        assertEquals(new TextMessage("message 49"), log.get(49).message());
+        try (var segments = Files.list(channelDirectory)) {
+            assertTrue(segments.count() < 50);
+        }
+
+        log.delete();
+        assertFalse(Files.exists(channelDirectory));
+        assertThrows(IllegalStateException.class, () -> log.append(new TextMessage("late")));
+        assertFalse(Files.exists(channelDirectory));
+    }
+
+    @Test
+    void journalsOfAPreviousRunAreDeletedOnStartup() throws Exception {
+        var leftover = directory.resolve(MessageLogFactory.JOURNAL_DIRECTORY).resolve("0123456789abcdef");
+        Files.createDirectories(leftover);
+        Files.writeString(leftover.resolve("0.segment"), "stale");
+
+        var factory = new MessageLogFactory(10, DataSize.ofMegabytes(1), true, directory.toString(),
+                DataSize.ofKilobytes(64), DataSize.ofMegabytes(1));
+        assertFalse(Files.exists(leftover));
+        factory.newLog().append(new TextMessage("message"));
+        try (var journals = Files.list(directory.resolve(MessageLogFactory.JOURNAL_DIRECTORY))) {
+            assertEquals(1, journals.count());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageFanoutTests {
+
+    @Test
+    void slowSubscriberDropsOldest() {
+        var counters = new MessageFanout.Counters();
+        var fanout = new MessageFanout<Integer>(2, MessageFanout.OverflowPolicy.DROP_OLDEST, counters);
+
+        StepVerifier.create(fanout.flux(), 0)
+                .then(() -> {
+                    for (int i = 0; i < 5; i++)
+                        fanout.emit(i);
+                    fanout.complete();
+                })
+                .thenRequest(10)
+                .expectNext(3, 4)
+                .verifyComplete();
+
+        assertEquals(3, counters.stats().dropped());
+    }
+
+    @Test
+    void slowSubscriberIsDisconnectedWithoutAffectingOthers() {
+        var counters = new MessageFanout.Counters();
+        var fanout = new MessageFanout<Integer>(2, MessageFanout.OverflowPolicy.DISCONNECT, counters);
+
+        var fast = fanout.flux().collectList().toFuture();
+        StepVerifier.create(fanout.flux(), 0)
+                .then(() -> {
+                    for (int i = 0; i < 3; i++)
+                        fanout.emit(i);
+                })
+                .thenRequest(1)
+                .expectError()
+                .verify();
+        fanout.complete();
+
+        assertEquals(3, fast.join().size());
+        assertEquals(1, counters.stats().disconnected());
+        assertFalse(fanout.emit(4));
+    }
+}
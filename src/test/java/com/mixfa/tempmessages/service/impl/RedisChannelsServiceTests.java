@@ -0,0 +1,134 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against a real redis-server, e.g. {@code REDIS_HOST=localhost REDIS_PASSWORD= mvn test}.
+ */
+@SpringBootTest(properties = "filestorage.root=${java.io.tmpdir}/temp-messages-test")
+@ActiveProfiles("redis")
+@EnabledIfEnvironmentVariable(named = "REDIS_HOST", matches = ".+")
+class RedisChannelsServiceTests {
+    @Autowired
+    private RedisChannelsService channelsService;
+    @Autowired
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Test
+    void pagesHistoryAndFansOutLiveMessages() throws Exception {
+        var channel = "test-" + UUID.randomUUID();
+        channelsService.createChannel(channel, "secret").block();
+
+        assertTrue(channelsService.channelExists(channel));
+        assertTrue(channelsService.channelCheckCredentials(channel, "secret"));
+        assertFalse(channelsService.channelCheckCredentials(channel, "wrong"));
+
+        for (int i = 0; i < 5; i++)
+            channelsService.sendMessage(channel, "secret", new TextMessage("m" + i)).block();
+
+        StepVerifier.create(channelsService.listMessages(channel, "secret", 1, 2))
+                .expectNext(new TextMessage("m1"), new TextMessage("m2"))
+                .verifyComplete();
+        assertEquals(5L, channelsService.countMessages(channel, "secret").block());
+
+        // the history is only read once the live feed is subscribed, so the replayed message signals it
+        var subscribed = new CountDownLatch(1);
+        var live = channelsService.listenMessages(channel, "secret", -1)
+                .map(SequencedMessage::message)
+                .doOnNext(_ -> subscribed.countDown())
+                .take(2)
+                .collectList()
+                .toFuture();
+        assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+        channelsService.sendMessage(channel, "secret", new TextMessage("live")).block();
+
+        assertEquals(List.of(new TextMessage("m4"), new TextMessage("live")), live.get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(0L, 1L), channelsService.readMessages(channel, "secret", 0, 2)
+                .map(SequencedMessage::sequence).collectList().block());
+        assertEquals(List.of(new TextMessage("m4"), new TextMessage("live")), channelsService.readMessages(channel, "secret", 4, 5)
+                .map(SequencedMessage::message).collectList().block());
+    }
+
+    @Test
+    void channelIsCreatedWithItsExpiry() throws Exception {
+        var channel = "test-" + UUID.randomUUID();
+        channelsService.createChannel(channel, "secret").block();
+        var ttl = redisTemplate.getExpire("channel:" + channel).block();
+        assertTrue(ttl.toMillis() > 0);
+
+        StepVerifier.create(channelsService.createChannel(channel, "other"))
+                .expectErrorMessage("Channel with this name already exists")
+                .verify();
+        assertTrue(channelsService.channelCheckCredentials(channel, "secret"));
+    }
+
+    @Test
+    void resumesFromSequenceThenFollowsLive() throws Exception {
+        var channel = "test-" + UUID.randomUUID();
+        channelsService.createChannel(channel, "secret").block();
+        for (int i = 0; i < 3; i++)
+            channelsService.sendMessage(channel, "secret", new TextMessage("m" + i)).block();
+
+        var subscribed = new CountDownLatch(1);
+        var resumed = channelsService.listenMessages(channel, "secret", -2)
+                .map(SequencedMessage::message)
+                .doOnNext(_ -> subscribed.countDown())
+                .take(3)
+                .collectList()
+                .toFuture();
+        assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+        channelsService.sendMessage(channel, "secret", new TextMessage("live")).block();
+
+        assertEquals(
+                List.of(new TextMessage("m1"), new TextMessage("m2"), new TextMessage("live")),
+                resumed.get(5, TimeUnit.SECONDS)
+        );
+    }
+
+    @Test
+    void sendsBatchInOrder() throws Exception {
+        var channel = "test-" + UUID.randomUUID();
+        channelsService.createChannel(channel, "secret").block();
+
+        var batch = Flux.range(0, 300).map(i -> new TextMessage("m" + i));
+        var sent = channelsService.sendMessages(channel, "secret", batch).collectList().block();
+
+        assertEquals(300, sent.size());
+        for (int i = 0; i < sent.size(); i++) {
+            // numbered from 0, like standalone channels
+            assertEquals(i, sent.get(i).sequence());
+            assertEquals(new TextMessage("m" + i), sent.get(i).message());
+        }
+    }
+
+    @Test
+    void appendToDeletedChannelFails() throws Exception {
+        var channel = "test-" + UUID.randomUUID();
+        channelsService.createChannel(channel, "secret").block();
+
+        // the channel goes away after the credentials were checked, right before the append
+        var payload = redisTemplate.delete("channel:" + channel).thenReturn(new TextMessage("late"));
+        StepVerifier.create(channelsService.sendMessages(channel, "secret", payload.flux()))
+                .expectErrorMessage("Channel not found")
+                .verify();
+    }
+}
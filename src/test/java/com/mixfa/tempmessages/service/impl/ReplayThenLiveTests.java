@@ -0,0 +1,41 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayThenLiveTests {
+
+    @Test
+    void messagesAppendedWhileReplayingAreDeliveredOnce() throws Exception {
+        var log = new RingMessageLog(100, Long.MAX_VALUE);
+        var fanout = new MessageFanout<SequencedMessage>(16, MessageFanout.OverflowPolicy.DROP_OLDEST, new MessageFanout.Counters());
+        for (int i = 0; i < 3; i++)
+            fanout.emit(log.append(new TextMessage("m" + i)));
+
+        var received = ReplayThenLive.of(
+                        Mono.fromSupplier(fanout::flux),
+                        Mono.just(1L),
+                        (from, to) -> Flux.defer(() -> {
+                            // appended after the live feed is connected but before the history is read
+                            fanout.emit(log.append(new TextMessage("m3")));
+                            return Flux.fromIterable(log.read(from, Math.min(to - from, 100)));
+                        })
+                )
+                .map(SequencedMessage::sequence)
+                .take(4)
+                .collectList()
+                .toFuture();
+
+        fanout.emit(log.append(new TextMessage("m4")));
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), received.get(5, TimeUnit.SECONDS));
+    }
+}
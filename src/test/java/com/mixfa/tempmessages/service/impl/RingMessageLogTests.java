@@ -0,0 +1,52 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.SequencedMessage;
+import com.mixfa.tempmessages.model.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingMessageLogTests {
+
+    @Test
+    void evictsOldestByCount() {
+        var log = new RingMessageLog(3, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++)
+            log.append(new TextMessage("m" + i));
+
+        assertEquals(2, log.firstSequence());
+        assertEquals(5, log.nextSequence());
+        assertNull(log.get(1));
+        assertEquals(new TextMessage("m3"), log.get(3).message());
+    }
+
+    @Test
+    void evictsOldestByBytes() {
+        var message = new TextMessage("x".repeat(100));
+        var log = new RingMessageLog(100, 2 * RingMessageLog.sizeOf(message));
+        for (int i = 0; i < 4; i++)
+            log.append(message);
+
+        assertEquals(2, log.size());
+        assertEquals(2 * RingMessageLog.sizeOf(message), log.bytes());
+    }
+
+    @Test
+    void windowIsRelativeToOldestRetained() {
+        var log = new RingMessageLog(4, Long.MAX_VALUE);
+        for (int i = 0; i < 6; i++)
+            log.append(new TextMessage("m" + i));
+
+        var window = log.window(1, 2);
+        assertEquals(2, window.size());
+        assertEquals(3, window.getFirst().sequence());
+        assertEquals(new TextMessage("m4"), window.getLast().message());
+        assertTrue(log.window(10, 5).isEmpty());
+        assertEquals(
+                log.read(2, 10).stream().map(SequencedMessage::sequence).toList(),
+                List.of(2L, 3L, 4L, 5L)
+        );
+    }
+}
@@ -0,0 +1,85 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageQuotasTests {
+
+    private static Flux<DataBuffer> content(int length) {
+        return Flux.range(0, length / 10)
+                .map(_ -> DefaultDataBufferFactory.sharedInstance.wrap(new byte[10]));
+    }
+
+    @Test
+    void writesAreRejectedOnceAQuotaWouldBeExceeded(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var quotas = new StorageQuotas(storage, DataSize.ofBytes(100), DataSize.ofBytes(150));
+
+        var stored = quotas.write("a", Mono.just(0L), "a.bin", content(60), Mono::just).block();
+        assertNotNull(stored);
+        assertEquals(60, storage.usedBytes());
+
+        // the channel already holds 60 bytes
+        assertThrows(Exception.class, () -> quotas.write("a", Mono.just(60L), "b.bin", content(60), Mono::just).block());
+        // another channel still runs into the global quota
+        var reservation = quotas.reserve("b", Mono.just(0L), 80).block();
+        assertThrows(Exception.class, () -> quotas.write("c", Mono.just(0L), "c.bin", content(20), Mono::just).block());
+        reservation.release();
+        assertNotNull(quotas.write("c", Mono.just(0L), "c.bin", content(20), Mono::just).block());
+
+        try (var files = Files.list(root)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void bytesCountUntilTheFileIsRegistered(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var quotas = new StorageQuotas(storage, DataSize.ofBytes(100), DataSize.ofBytes(0));
+        // what the channel's registered files take
+        var registered = new AtomicLong();
+        var channelBytes = Mono.fromSupplier(registered::get);
+
+        // stored but not registered yet, the first file still holds its bytes
+        var first = quotas.write("a", channelBytes, "a.bin", content(60), savedFile -> {
+            assertThrows(Exception.class, () -> quotas.reserve("a", channelBytes, 60).block());
+            registered.addAndGet(60);
+            return Mono.just(savedFile);
+        }).block();
+        assertNotNull(first);
+
+        // a write that looked the channel up before another file was registered still counts that file
+        var registeredInB = new AtomicLong();
+        var bytesInB = Mono.fromSupplier(registeredInB::get);
+        var late = Flux.defer(() -> {
+            quotas.write("b", bytesInB, "b.bin", content(60), savedFile -> {
+                registeredInB.addAndGet(60);
+                return Mono.just(savedFile);
+            }).block();
+            return content(60);
+        });
+        assertThrows(Exception.class, () -> quotas.write("b", bytesInB, "c.bin", late, Mono::just).block());
+    }
+
+    @Test
+    void fileIsDeletedWhenItCannotBeRegistered(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var quotas = new StorageQuotas(storage, DataSize.ofBytes(100), DataSize.ofBytes(0));
+
+        assertThrows(Exception.class, () -> quotas.write("a", Mono.just(0L), "a.bin", content(60),
+                _ -> Mono.error(new Exception("Channel not found"))).block());
+        assertEquals(0, storage.usedBytes());
+        assertNotNull(quotas.write("a", Mono.just(0L), "b.bin", content(100), Mono::just).block());
+    }
+}
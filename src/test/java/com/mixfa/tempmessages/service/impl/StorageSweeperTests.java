@@ -0,0 +1,67 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class StorageSweeperTests {
+
+    private static void age(Path directory) throws Exception {
+        var longAgo = FileTime.from(Instant.now().minus(Duration.ofDays(1)));
+        try (var paths = Files.walk(directory)) {
+            for (var path : paths.toList())
+                Files.setLastModifiedTime(path, longAgo);
+        }
+    }
+
+    @Test
+    void orphansOlderThanGracePeriodAreReclaimed(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var live = storage.write("live.txt", new ByteArrayInputStream("live".getBytes()));
+        var orphan = storage.write("orphan.txt", new ByteArrayInputStream("orphan".getBytes()));
+        var young = storage.write("young.txt", new ByteArrayInputStream("young".getBytes()));
+        // what a crash in the middle of a write leaves behind
+        var leftover = Files.createDirectories(root.resolve("0123456789abcdef"));
+        Files.writeString(leftover.resolve("partial.bin"), "par");
+        age(root.resolve(live.id()));
+        age(root.resolve(orphan.id()));
+        age(leftover);
+
+        var channelsService = mock(ReactiveChannelsService.class);
+        when(channelsService.listAllFiles()).thenReturn(Flux.just(live.id()));
+        var sweeper = new StorageSweeper(channelsService, storage, Duration.ZERO, Duration.ofHours(1), 1, Duration.ZERO);
+
+        assertEquals("orphan".length() + "par".length(), sweeper.sweep());
+        assertFalse(Files.exists(root.resolve(orphan.id())));
+        assertFalse(Files.exists(leftover));
+        assertTrue(Files.exists(root.resolve(live.id())));
+        assertTrue(Files.exists(root.resolve(young.id())));
+        assertEquals("live".length() + "young".length(), storage.usedBytes());
+    }
+
+    @Test
+    void failingToListLiveFilesDeletesNothing(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var file = storage.write("file.txt", new ByteArrayInputStream("file".getBytes()));
+        age(root.resolve(file.id()));
+
+        var channelsService = mock(ReactiveChannelsService.class);
+        when(channelsService.listAllFiles()).thenReturn(Flux.error(new Exception("Redis is down")));
+        var sweeper = new StorageSweeper(channelsService, storage, Duration.ZERO, Duration.ofHours(1), 1, Duration.ZERO);
+
+        assertEquals(0, sweeper.sweep());
+        assertTrue(Files.exists(root.resolve(file.id())));
+    }
+}
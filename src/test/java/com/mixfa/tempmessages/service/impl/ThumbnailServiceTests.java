@@ -0,0 +1,70 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.service.FileStorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailServiceTests {
+
+    @Test
+    void imagesGetAScaledDownThumbnailThatGoesAwayWithTheFile(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var thumbnails = new ThumbnailService(storage, true, 64, 1, 1);
+
+        var image = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_ARGB), "png", image);
+        var saved = storage.write("wide.png", new ByteArrayInputStream(image.toByteArray()));
+        thumbnails.submit(new FileMessage(saved));
+
+        var thumbnail = thumbnails.thumbnail(saved.id(), "image/png").block();
+        assertNotNull(thumbnail);
+        assertEquals("image/jpeg", thumbnail.contentType());
+        var decoded = ImageIO.read(thumbnail.path().toFile());
+        assertEquals(64, decoded.getWidth());
+        assertEquals(32, decoded.getHeight());
+
+        storage.delete(saved.id());
+        assertFalse(Files.exists(root.resolve(saved.id())));
+    }
+
+    @Test
+    void imagesHeldInMemoryAreReadThroughATemporaryCache(@TempDir Path root) throws Exception {
+        var disk = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var storage = new TieredFileStorageService(disk, DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), false);
+        var thumbnails = new ThumbnailService(storage, true, 64, 1, 1);
+
+        var image = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(500, 1000, BufferedImage.TYPE_INT_RGB), "png", image);
+        var saved = storage.write("tall.png", FileStorageService.content(() -> new ByteArrayInputStream(image.toByteArray()))).block();
+        assertNull(saved.path());
+
+        var thumbnail = thumbnails.thumbnail(saved.id(), "image/png").block();
+        assertNotNull(thumbnail);
+        var bytes = new ByteArrayOutputStream();
+        thumbnail.streamingResponse().writeTo(bytes);
+        var decoded = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(32, decoded.getWidth());
+        assertEquals(64, decoded.getHeight());
+    }
+
+    @Test
+    void otherFilesHaveNoThumbnail(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var thumbnails = new ThumbnailService(storage, true, 64, 1, 1);
+        var saved = storage.write("notes.txt", new ByteArrayInputStream("text".getBytes()));
+
+        assertFalse(thumbnails.supports("text/plain"));
+        assertThrows(Exception.class, () -> thumbnails.thumbnail(saved.id(), "text/plain").block());
+    }
+}
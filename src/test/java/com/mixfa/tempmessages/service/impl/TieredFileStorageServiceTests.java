@@ -0,0 +1,89 @@
+package com.mixfa.tempmessages.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpRange;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TieredFileStorageServiceTests {
+
+    private static Flux<DataBuffer> content(String text) {
+        return Flux.fromArray(text.split("(?<=\\G.{4})"))
+                .map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String readAll(Flux<DataBuffer> content) {
+        var joined = DataBufferUtils.join(content).block();
+        var text = joined.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(joined);
+        return text;
+    }
+
+    @Test
+    void smallFilesStayInMemoryUntilTheyAreSpilledUnderTheSameId(@TempDir Path root) throws Exception {
+        var disk = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var storage = new TieredFileStorageService(disk, DataSize.ofBytes(30), DataSize.ofBytes(24), false);
+
+        var small = storage.write("small.txt", content("0123456789abcdefghij")).block();
+        assertNotNull(small);
+        assertNull(small.path());
+        assertEquals("small.txt", small.filename());
+        assertFalse(Files.exists(root.resolve(small.id())));
+        assertEquals("abcde", readAll(storage.read(small.id(), HttpRange.createByteRange(10, 14))));
+        var response = storage.read(small.id());
+        assertNull(response.path());
+        assertEquals(20, response.size());
+
+        var large = storage.write("large.txt", content("this is more than twenty-four bytes")).block();
+        assertTrue(Files.exists(root.resolve(large.id())));
+        assertEquals("this is more than twenty-four bytes", readAll(storage.read(large.id(), null)));
+
+        // a second small file pushes the first one out of memory
+        var next = storage.write("next.txt", content("klmnopqrstuvwxyz0123")).block();
+        assertFalse(Files.exists(root.resolve(next.id())));
+        assertTrue(Files.exists(root.resolve(small.id())));
+        var spilled = new ByteArrayOutputStream();
+        storage.read(small.id()).streamingResponse().writeTo(spilled);
+        assertEquals("0123456789abcdefghij", spilled.toString(StandardCharsets.UTF_8));
+
+        storage.delete(next.id());
+        storage.delete(small.id());
+        assertEquals(disk.usedBytes(), storage.usedBytes());
+        assertThrows(Exception.class, () -> storage.read(next.id()));
+    }
+
+    @Test
+    void variantsCountAgainstTheMemoryBudget(@TempDir Path root) throws Exception {
+        var disk = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var storage = new TieredFileStorageService(disk, DataSize.ofBytes(30), DataSize.ofBytes(24), false);
+
+        var first = storage.write("first.txt", content("0123456789")).block();
+        var second = storage.write("second.txt", content("abcdefghij")).block();
+        assertEquals(20, storage.usedBytes());
+        // a channel's files are counted with their variants too
+        storage.writeVariant(first.id(), "thumbnail.png", new byte[5]);
+        assertEquals(15, storage.usedBytes(List.of(first.id())));
+        assertEquals(25, storage.usedBytes());
+
+        // the thumbnail of the second file leaves no room for the first one
+        storage.writeVariant(second.id(), "thumbnail.png", new byte[15]);
+        assertTrue(Files.exists(root.resolve(first.id())));
+        assertFalse(Files.exists(root.resolve(second.id())));
+        assertEquals(15, storage.readVariant(second.id(), "thumbnail.png").size());
+
+        storage.delete(second.id());
+        assertEquals(disk.usedBytes(), storage.usedBytes());
+    }
+}
@@ -0,0 +1,97 @@
+package com.mixfa.tempmessages.service.impl;
+
+import com.mixfa.tempmessages.model.FileMessage;
+import com.mixfa.tempmessages.model.UploadStatus;
+import com.mixfa.tempmessages.service.ReactiveChannelsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UploadSessionServiceImplTests {
+
+    private static Flux<DataBuffer> chunk(String text) {
+        return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(text.getBytes()));
+    }
+
+    private static ReactiveChannelsService channelsService() throws Exception {
+        var channelsService = mock(ReactiveChannelsService.class);
+        when(channelsService.channelCheckCredentials("channel", "password")).thenReturn(true);
+        when(channelsService.listFiles("channel", "password")).thenReturn(Flux.empty());
+        when(channelsService.sendMessage(eq("channel"), eq("password"), any()))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(2)));
+        return channelsService;
+    }
+
+    private static StorageQuotas quotas(LocalFileStorageService storage) {
+        return new StorageQuotas(storage, DataSize.ofKilobytes(1), DataSize.ofBytes(0));
+    }
+
+    @Test
+    void chunksArrivingOutOfOrderAreAssembledAndSent(@TempDir Path root) throws Exception {
+        var channelsService = channelsService();
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var uploads = new UploadSessionServiceImpl(channelsService, storage, quotas(storage), root.toString(), DataSize.ofKilobytes(1), Duration.ofHours(1));
+
+        var id = uploads.create("channel", "password", "digits.txt", 10).block().id();
+        Mono.when(
+                uploads.write("channel", "password", id, 5, chunk("56789")),
+                uploads.write("channel", "password", id, 3, chunk("34"))
+        ).block();
+        assertEquals(List.of(new UploadStatus.Range(3, 10)), uploads.status("channel", "password", id).block().received());
+        assertThrows(Exception.class, () -> uploads.complete("channel", "password", id));
+        assertThrows(Exception.class, () -> uploads.write("channel", "password", id, 8, chunk("890")).block());
+
+        uploads.write("channel", "password", id, 0, chunk("012")).block();
+        var message = (FileMessage) uploads.complete("channel", "password", id).block();
+        assertNotNull(message);
+        assertEquals("0123456789", Files.readString(Path.of(message.path())));
+        verify(channelsService).sendMessage(eq("channel"), eq("password"), any(FileMessage.class));
+        assertThrows(Exception.class, () -> uploads.status("channel", "password", id));
+    }
+
+    @Test
+    void storedFileIsDeletedWhenSendingFails(@TempDir Path root) throws Exception {
+        var channelsService = channelsService();
+        when(channelsService.sendMessage(eq("channel"), eq("password"), any()))
+                .thenReturn(Mono.error(new Exception("Channel not found")));
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var uploads = new UploadSessionServiceImpl(channelsService, storage, quotas(storage), root.toString(), DataSize.ofKilobytes(1), Duration.ofHours(1));
+
+        var id = uploads.create("channel", "password", "lost.txt", 4).block().id();
+        uploads.write("channel", "password", id, 0, chunk("lost")).block();
+        var completion = uploads.complete("channel", "password", id);
+        assertThrows(Exception.class, completion::block);
+
+        try (var files = Files.walk(root)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().equals("lost.txt")));
+        }
+    }
+
+    @Test
+    void abandonedSessionsAreDropped(@TempDir Path root) throws Exception {
+        var storage = new LocalFileStorageService(root.toString(), false, DataSize.ofMegabytes(25), false, false);
+        var uploads = new UploadSessionServiceImpl(channelsService(), storage, quotas(storage), root.toString(), DataSize.ofKilobytes(1), Duration.ofMillis(50));
+
+        var id = uploads.create("channel", "password", "big.bin", 100).block().id();
+        var part = root.resolve(UploadSessionServiceImpl.UPLOADS_DIRECTORY).resolve(id + ".part");
+        assertTrue(Files.exists(part));
+
+        for (int i = 0; i < 100 && Files.exists(part); i++)
+            Thread.sleep(20);
+        assertFalse(Files.exists(part));
+        assertThrows(Exception.class, () -> uploads.status("channel", "password", id));
+    }
+}